@@ -0,0 +1,101 @@
+package com.upgrade.volcano;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.ProcessBuilder.Redirect;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time from launching a new JVM with the application until GET /booking first answers 200, with the default
+ * configuration and with the fast-startup profile. Every invocation starts and stops a whole process, so each one
+ * is measured once; the output of the application goes to target/startup-benchmark.log.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+
+	private static final long TIMEOUT_MILLIS = 120000;
+	private static final File LOG = new File("target", "startup-benchmark.log");
+
+	@Param({"default", "fast-startup"})
+	private String profile;
+
+	private Process process;
+
+	private static int freePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	@Benchmark
+	public int firstBooking() throws Exception {
+		int port = freePort();
+		//the same class path as the benchmark, the application classes and every runtime dependency.
+		process = new ProcessBuilder(
+				Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+				"-cp", System.getProperty("java.class.path"),
+				VolcanoApplication.class.getName(),
+				"--spring.profiles.active=" + profile,
+				"--spring.devtools.restart.enabled=false",
+				"--server.port=" + port,
+				"--management.server.port=" + freePort())
+			.redirectErrorStream(true)
+			.redirectOutput(Redirect.appendTo(LOG))
+			.start();
+
+		URL booking = new URL("http://127.0.0.1:" + port + "/booking");
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+
+		while (System.currentTimeMillis() < deadline) {
+			if (!process.isAlive())
+				throw new IllegalStateException("the application exited with " + process.exitValue() + ", see " + LOG);
+
+			try {
+				HttpURLConnection connection = (HttpURLConnection) booking.openConnection();
+				int status = connection.getResponseCode();
+				connection.disconnect();
+
+				if (status == 200)
+					return status;
+			}
+			catch (IOException e) {
+				//not listening yet.
+			}
+
+			Thread.sleep(10);
+		}
+
+		throw new IllegalStateException("GET /booking didn't answer 200 within " + TIMEOUT_MILLIS + " ms, see " + LOG);
+	}
+
+	//a graceful stop, so the ports and the database are gone before the next invocation starts.
+	@TearDown(Level.Invocation)
+	public void stop() throws InterruptedException {
+		process.destroy();
+
+		if (!process.waitFor(30, TimeUnit.SECONDS))
+			process.destroyForcibly().waitFor();
+	}
+}
@@ -0,0 +1,133 @@
+package com.upgrade.volcano.repository;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.upgrade.volcano.VolcanoApplication;
+
+/**
+ * Repository calls behind the booking endpoints, against the embedded H2 database filled with a given number of bookings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookingRepositoryBenchmark {
+
+	private static final LocalDate FIRST_DAY = LocalDate.of(2000, 1, 1);
+	private static final int INSERT_CHUNK = 5000;
+
+	@Param({"10000", "100000", "1000000"})
+	private int rows;
+
+	private ConfigurableApplicationContext context;
+	private BookingRepository bookingRepository;
+	private TransactionTemplate transactionTemplate;
+
+	//one uuid per row, every booking takes 3 days.
+	private String[] uuids;
+
+	@Setup(Level.Trial)
+	public void setup() {
+		context = new SpringApplicationBuilder(VolcanoApplication.class)
+				.web(WebApplicationType.NONE)
+				.properties(
+					"spring.devtools.restart.enabled=false",
+					"spring.datasource.url=jdbc:h2:mem:benchmark-" + rows + ";DB_CLOSE_DELAY=-1",
+					"volcano.availability.reconcile-interval=3600000")
+				.run();
+
+		bookingRepository = context.getBean(BookingRepository.class);
+		transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+		uuids = new String[rows];
+
+		for (int start = 0; start < rows; start += INSERT_CHUNK) {
+			int from = start;
+			int to = Math.min(rows, start + INSERT_CHUNK);
+
+			transactionTemplate.execute(status -> {
+				List<Booking> chunk = new ArrayList<>();
+
+				for (int booking = from; booking < to; booking++) {
+					uuids[booking] = UUID.randomUUID().toString();
+					Booking row = new Booking("Tomas", "Juarez", "tomasjuarez@gmail.com", FIRST_DAY.plusDays(3L * booking), FIRST_DAY.plusDays(3L * booking + 2));
+					row.setUuid(uuids[booking]);
+					chunk.add(row);
+				}
+
+				return bookingRepository.saveAll(chunk);
+			});
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		context.close();
+	}
+
+	private LocalDate randomDay() {
+		return FIRST_DAY.plusDays(ThreadLocalRandom.current().nextInt(rows * 3));
+	}
+
+	@Benchmark
+	public List<Booking> findMonthWindow() {
+		LocalDate from = randomDay();
+		return bookingRepository.findOverlapping(Booking.DEFAULT_CAMPSITE, from, from.plusMonths(1));
+	}
+
+	@Benchmark
+	public List<Booking> findByUuid() {
+		return bookingRepository.findByUuid(uuids[ThreadLocalRandom.current().nextInt(uuids.length)]);
+	}
+
+	@Benchmark
+	public List<Booking> findMissingUuid() {
+		return bookingRepository.findByUuid(UUID.randomUUID().toString());
+	}
+
+	//the lock and the overlap check every write goes through, for a range that's always taken by the booking itself.
+	@Benchmark
+	public Object requireFree() {
+		int booking = ThreadLocalRandom.current().nextInt(uuids.length);
+		LocalDate from = FIRST_DAY.plusDays(3L * booking);
+
+		return transactionTemplate.execute(status -> {
+			bookingRepository.requireFree(Booking.DEFAULT_CAMPSITE, uuids[booking], from, from.plusDays(2));
+			return from;
+		});
+	}
+
+	//the booking keeps its dates, so the table is the same for every invocation.
+	@Benchmark
+	public Object changeDates() {
+		int booking = ThreadLocalRandom.current().nextInt(uuids.length);
+		LocalDate from = FIRST_DAY.plusDays(3L * booking);
+
+		return transactionTemplate.execute(status -> bookingRepository.changeDates(uuids[booking], from, from.plusDays(2)));
+	}
+}
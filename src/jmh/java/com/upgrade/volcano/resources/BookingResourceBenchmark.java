@@ -0,0 +1,93 @@
+package com.upgrade.volcano.resources;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.upgrade.volcano.repository.Booking;
+
+/**
+ * CPU-only hot paths of the booking resource: date validation, mapping rows to the response and serializing it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BookingResourceBenchmark {
+
+	//rows in the response: the default one month window and a year long report.
+	@Param({"30", "365"})
+	private int rows;
+
+	//validateDates doesn't touch any collaborator.
+	private final BookingResource bookingResource = new BookingResource(null, null, null, null, null, null, null, null, null, null, null, 3);
+	//configured like the one Spring Boot builds: java.time support and ISO dates.
+	private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+	private List<Booking> bookings;
+	private BookingResourceResponse response;
+
+	@Setup
+	public void setup() {
+		bookings = new ArrayList<>();
+		String uuid = null;
+
+		for (int day = 0; day < rows; day++) {
+			if (day % 3 == 0)
+				uuid = UUID.randomUUID().toString();
+
+			bookings.add(new Booking("Tomas", "Juarez", "tomasjuarez@gmail.com", LocalDate.now().plusDays(day), uuid));
+		}
+
+		response = new BookingResourceResponse(bookings);
+	}
+
+	@Benchmark
+	public ResponseEntity<BookingResourceResponse> validateAcceptedDates() {
+		return bookingResource.validateDates(LocalDate.now().plusDays(1), LocalDate.now().plusDays(3));
+	}
+
+	@Benchmark
+	public ResponseEntity<BookingResourceResponse> validateRejectedDates() {
+		return bookingResource.validateDates(LocalDate.now().plusDays(1), LocalDate.now().plusDays(5));
+	}
+
+	@Benchmark
+	public BookingResourceResponse mapList() {
+		return new BookingResourceResponse(bookings);
+	}
+
+	@Benchmark
+	public BookingResourceResponse mapCompactList() {
+		return new BookingResourceResponse(bookings, true);
+	}
+
+	@Benchmark
+	public byte[] serialize() throws Exception {
+		return objectMapper.writeValueAsBytes(response);
+	}
+
+	@Benchmark
+	public byte[] mapAndSerialize() throws Exception {
+		return objectMapper.writeValueAsBytes(new BookingResourceResponse(bookings));
+	}
+}
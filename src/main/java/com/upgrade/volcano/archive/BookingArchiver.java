@@ -0,0 +1,106 @@
+package com.upgrade.volcano.archive;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.upgrade.volcano.availability.AvailabilityIndex;
+import com.upgrade.volcano.repository.ArchivedBookingRepository;
+import com.upgrade.volcano.repository.BookingRepository;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Moves bookings that are already over from the booking table to the archive, so the table and its indexes only
+ * hold the bookings that can still change.
+ *
+ * A booking is archived once its last day is before the availability window: it has ended, and no write can reach
+ * it anymore. Rows go in small batches, each one in its own short transaction, with a pause in between, so live
+ * requests never wait long for the archiver. A row is copied and removed in the same transaction, it's always
+ * in exactly one of the two tables.
+ */
+@Component
+//nothing asks for it, it would never be created with lazy initialization.
+@Lazy(false)
+public class BookingArchiver {
+
+	private static final Logger logger = LoggerFactory.getLogger(BookingArchiver.class);
+
+	private final BookingRepository bookingRepository;
+	private final ArchivedBookingRepository archivedBookingRepository;
+	private final AvailabilityIndex availabilityIndex;
+	private final TransactionTemplate transactionTemplate;
+	private final Counter archived;
+	private final int batchSize;
+	private final long pauseMillis;
+
+	public BookingArchiver(BookingRepository bookingRepository, ArchivedBookingRepository archivedBookingRepository, AvailabilityIndex availabilityIndex,
+			PlatformTransactionManager transactionManager, MeterRegistry meterRegistry,
+			@Value("${volcano.archive.batch-size:1000}") int batchSize, @Value("${volcano.archive.pause:50}") long pauseMillis) {
+		this.bookingRepository = bookingRepository;
+		this.archivedBookingRepository = archivedBookingRepository;
+		this.availabilityIndex = availabilityIndex;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.archived = meterRegistry.counter("volcano.archive.rows");
+		this.batchSize = batchSize;
+		this.pauseMillis = pauseMillis;
+	}
+
+	/**
+	 * First day that stays in the booking table, GET /booking reads the archive for anything before it.
+	 */
+	public LocalDate cutoff() {
+		return availabilityIndex.windowStart();
+	}
+
+	@Scheduled(initialDelayString = "${volcano.archive.interval:3600000}", fixedDelayString = "${volcano.archive.interval:3600000}")
+	public void archive() {
+		LocalDate cutoff = cutoff();
+		long moved = 0;
+
+		while (true) {
+			int batch = transactionTemplate.execute(status -> moveBatch(cutoff));
+
+			if (batch == 0)
+				break;
+
+			moved += batch;
+			archived.increment(batch);
+
+			try {
+				Thread.sleep(pauseMillis);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		if (moved > 0)
+			logger.info("archived {} booking(s) over before {}", moved, cutoff);
+	}
+
+	/**
+	 * Moves the next batch of bookings over before the cutoff, in the transaction of the caller. Returns how many
+	 * were moved, 0 once there are none left.
+	 */
+	public int moveBatch(LocalDate cutoff) {
+		List<Long> ids = bookingRepository.findIdsByDateToBefore(cutoff, PageRequest.of(0, batchSize));
+
+		if (ids.isEmpty())
+			return 0;
+
+		archivedBookingRepository.copyFromBookings(ids);
+		return bookingRepository.deleteByIdIn(ids);
+	}
+}
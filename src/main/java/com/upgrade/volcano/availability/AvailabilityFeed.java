@@ -0,0 +1,166 @@
+package com.upgrade.volcano.availability;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.Exceptions;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.MonoProcessor;
+
+/**
+ * Pushes the days that became booked or free to every subscriber of GET /booking/changes, so widgets don't have
+ * to poll for them.
+ *
+ * Changes reported by the availability index are only recorded, the latest state of every day wins. Every
+ * interval they go out as a single event, so a burst of changes costs one write per subscriber and a day booked
+ * and freed in between is sent once. Each subscriber can be behind by a few events at most; one that falls further
+ * behind is dropped and can reconnect, instead of piling events up in memory. An idle subscriber costs a sink
+ * and an entry in a set, no thread.
+ */
+@Component
+public class AvailabilityFeed {
+
+	public static class Change {
+		private final String campsite;
+		private final LocalDate date;
+		private final boolean available;
+
+		Change(String campsite, LocalDate date, boolean available) {
+			this.campsite = campsite;
+			this.date = date;
+			this.available = available;
+		}
+
+		public String getCampsite() {
+			return campsite;
+		}
+
+		public LocalDate getDate() {
+			return date;
+		}
+
+		public boolean isAvailable() {
+			return available;
+		}
+	}
+
+	private static class Subscriber {
+		//null for every campsite.
+		private final String campsite;
+		private final FluxSink<ServerSentEvent<List<Change>>> sink;
+
+		Subscriber(String campsite, FluxSink<ServerSentEvent<List<Change>>> sink) {
+			this.campsite = campsite;
+			this.sink = sink;
+		}
+	}
+
+	//[campsite, day] to whether it's booked now.
+	private final Map<List<Object>, Boolean> pending = new ConcurrentHashMap<>();
+	private final Set<Subscriber> subscribers = ConcurrentHashMap.newKeySet();
+	private final Counter dropped;
+	private final int maxPending;
+	private final long heartbeatMillis;
+
+	//only touched by flush.
+	private long sequence;
+	private long lastHeartbeat = System.currentTimeMillis();
+
+	public AvailabilityFeed(AvailabilityIndex availabilityIndex, MeterRegistry meterRegistry,
+			@Value("${volcano.changes.max-pending:16}") int maxPending, @Value("${volcano.changes.heartbeat:15000}") long heartbeatMillis) {
+		this.maxPending = maxPending;
+		this.heartbeatMillis = heartbeatMillis;
+		this.dropped = meterRegistry.counter("volcano.changes.dropped");
+		meterRegistry.gauge("volcano.changes.subscribers", subscribers, Set::size);
+		availabilityIndex.onChange((campsite, day, booked) -> pending.put(Arrays.asList(campsite, day), booked));
+	}
+
+	/**
+	 * Events with the changes of the given campsite, or of all of them when it's null, from now on.
+	 */
+	public Flux<ServerSentEvent<List<Change>>> subscribe(@Nullable String campsite) {
+		MonoProcessor<Void> behind = MonoProcessor.create();
+
+		return Flux.<ServerSentEvent<List<Change>>>create(sink -> {
+			Subscriber subscriber = new Subscriber(campsite, sink);
+			subscribers.add(subscriber);
+			sink.onDispose(() -> subscribers.remove(subscriber));
+		})
+		.onBackpressureBuffer(maxPending, event -> {
+			dropped.increment();
+			behind.onComplete();
+		}, BufferOverflowStrategy.DROP_LATEST)
+		//past maxPending events not taken by the client the stream fails right away, and the subscriber goes away with it.
+		//An error from the buffer itself would wait behind the events the client isn't taking, forever if it never reads.
+		.takeUntilOther(behind)
+		.concatWith(Flux.defer(() -> behind.isTerminated()
+				? Flux.error(Exceptions.failWithOverflow("the subscriber is more than " + maxPending + " events behind"))
+				: Flux.empty()));
+	}
+
+	public int subscribers() {
+		return subscribers.size();
+	}
+
+	@Scheduled(fixedDelayString = "${volcano.changes.interval:250}")
+	public void flush() {
+		long now = System.currentTimeMillis();
+
+		//comments keep idle connections from being closed by proxies along the way.
+		if (now - lastHeartbeat >= heartbeatMillis) {
+			lastHeartbeat = now;
+			ServerSentEvent<List<Change>> heartbeat = ServerSentEvent.<List<Change>>builder().comment("keep-alive").build();
+			subscribers.forEach(subscriber -> subscriber.sink.next(heartbeat));
+		}
+
+		List<Change> changes = new ArrayList<>();
+
+		for (List<Object> day : pending.keySet()) {
+			Boolean booked = pending.remove(day);
+
+			if (booked != null)
+				changes.add(new Change((String) day.get(0), (LocalDate) day.get(1), !booked));
+		}
+
+		if (changes.isEmpty() || subscribers.isEmpty())
+			return;
+
+		changes.sort(Comparator.comparing(Change::getDate));
+		String id = Long.toString(++sequence);
+		Map<String, List<Change>> byCampsite = new HashMap<>();
+		changes.forEach(change -> byCampsite.computeIfAbsent(change.getCampsite(), campsite -> new ArrayList<>()).add(change));
+
+		//one event per campsite and one with everything, shared by all their subscribers.
+		Map<String, ServerSentEvent<List<Change>>> events = new HashMap<>();
+		byCampsite.forEach((campsite, days) -> events.put(campsite, event(id, days)));
+		ServerSentEvent<List<Change>> all = event(id, changes);
+
+		for (Subscriber subscriber : subscribers) {
+			ServerSentEvent<List<Change>> event = (subscriber.campsite == null) ? all : events.get(subscriber.campsite);
+
+			if (event != null)
+				subscriber.sink.next(event);
+		}
+	}
+
+	private static ServerSentEvent<List<Change>> event(String id, List<Change> changes) {
+		return ServerSentEvent.<List<Change>>builder().id(id).event("availability").data(changes).build();
+	}
+}
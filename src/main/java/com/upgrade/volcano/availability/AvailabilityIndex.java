@@ -0,0 +1,326 @@
+package com.upgrade.volcano.availability;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.stereotype.Component;
+
+import com.upgrade.volcano.repository.Booking;
+
+/**
+ * In-memory view of which days are booked inside the booking window, for every campsite.
+ *
+ * Every day is stored in a fixed slot (epoch day modulo the capacity), so the window rolls forward
+ * on its own: a slot holding an older day is simply treated as free. Each campsite has its own slots
+ * and version, so bookings on different campsites never compete for the same memory.
+ */
+@Component
+public class AvailabilityIndex {
+
+	public static final long MAX_DAYS_AHEAD = 30L;
+	public static final long MAX_BOOKING_DAYS = 3L;
+
+	//Has to be bigger than the window (MAX_DAYS_AHEAD + MAX_BOOKING_DAYS days) so two live days never share a slot.
+	private static final int CAPACITY = 64;
+	private static final int MASK = CAPACITY - 1;
+
+	enum Claim { CLAIMED, ALREADY_OWNED, TAKEN }
+
+	/**
+	 * Hears about days that became booked or free for good, pending claims are never reported. It's called on the
+	 * thread that made the change, right after it, so it has to be quick.
+	 */
+	public interface ChangeListener {
+		void changed(String campsite, LocalDate day, boolean booked);
+	}
+
+	private static final class Slot {
+		private final long epochDay;
+		private final String uuid;
+		//Claimed by a transaction that hasn't committed yet.
+		private final boolean pending;
+
+		Slot(long epochDay, String uuid, boolean pending) {
+			this.epochDay = epochDay;
+			this.uuid = uuid;
+			this.pending = pending;
+		}
+	}
+
+	private static final class Site {
+		private final AtomicReferenceArray<Slot> slots = new AtomicReferenceArray<>(CAPACITY);
+		private final AtomicLong version = new AtomicLong();
+
+		String ownerOf(long epochDay) {
+			return owner(slots.get(index(epochDay)), epochDay);
+		}
+	}
+
+	public static class DayAvailability {
+		private LocalDate date;
+		private boolean available;
+
+		DayAvailability(LocalDate date, boolean available) {
+			this.date = date;
+			this.available = available;
+		}
+
+		public LocalDate getDate() {
+			return date;
+		}
+
+		public boolean isAvailable() {
+			return available;
+		}
+	}
+
+	//Sites show up on their first booking, a campsite without one has every day free.
+	private final Map<String, Site> sites = new ConcurrentHashMap<>();
+	private final List<ChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+	private static int index(long epochDay) {
+		return (int) (epochDay & MASK);
+	}
+
+	private static String owner(Slot slot, long epochDay) {
+		return (slot != null && slot.epochDay == epochDay) ? slot.uuid : null;
+	}
+
+	private Site site(String campsite) {
+		return sites.computeIfAbsent(campsite, name -> new Site());
+	}
+
+	public void onChange(ChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	private void changed(String campsite, long epochDay, boolean booked) {
+		if (listeners.isEmpty())
+			return;
+
+		LocalDate day = LocalDate.ofEpochDay(epochDay);
+		listeners.forEach(listener -> listener.changed(campsite, day, booked));
+	}
+
+	/**
+	 * First tracked day. A booking may start a couple of days before today as long as it ends tomorrow or later.
+	 */
+	public LocalDate windowStart() {
+		return LocalDate.now().minusDays(MAX_BOOKING_DAYS - 1);
+	}
+
+	public LocalDate windowEnd() {
+		return LocalDate.now().plusDays(MAX_DAYS_AHEAD);
+	}
+
+	public boolean covers(LocalDate day) {
+		return !day.isBefore(windowStart()) && !day.isAfter(windowEnd());
+	}
+
+	/**
+	 * Incremented on every change of the campsite, so readers can tell whether it moved under them.
+	 */
+	public long version(String campsite) {
+		Site site = sites.get(campsite);
+		return (site == null) ? 0L : site.version.get();
+	}
+
+	/**
+	 * The version of every campsite known so far, to be handed to {@link #reconcile}.
+	 */
+	public Map<String, Long> versions() {
+		Map<String, Long> versions = new HashMap<>();
+		sites.forEach((campsite, site) -> versions.put(campsite, site.version.get()));
+		return versions;
+	}
+
+	public String ownerOf(String campsite, LocalDate day) {
+		Site site = sites.get(campsite);
+		return (site == null) ? null : site.ownerOf(day.toEpochDay());
+	}
+
+	public boolean isBooked(String campsite, LocalDate day) {
+		return ownerOf(campsite, day) != null;
+	}
+
+	/**
+	 * Whether the day belongs to a committed booking. Days claimed by requests still in flight may be given back.
+	 */
+	public boolean isConfirmed(String campsite, LocalDate day) {
+		Site site = sites.get(campsite);
+
+		if (site == null)
+			return false;
+
+		long epochDay = day.toEpochDay();
+		Slot slot = site.slots.get(index(epochDay));
+		return owner(slot, epochDay) != null && !slot.pending;
+	}
+
+	public List<DayAvailability> availability(String campsite, LocalDate from, LocalDate to) {
+		List<DayAvailability> days = new ArrayList<>();
+
+		for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1))
+			days.add(new DayAvailability(day, !isBooked(campsite, day)));
+
+		return days;
+	}
+
+	/**
+	 * Booked days of one campsite between from and to.
+	 */
+	public int countBooked(String campsite, LocalDate from, LocalDate to) {
+		int booked = 0;
+
+		for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1))
+			booked += isBooked(campsite, day) ? 1 : 0;
+
+		return booked;
+	}
+
+	public void book(String campsite, String uuid, LocalDate day) {
+		if (put(campsite, uuid, day))
+			changed(campsite, day.toEpochDay(), true);
+	}
+
+	private boolean put(String campsite, String uuid, LocalDate day) {
+		if (!covers(day))
+			return false;
+
+		Site site = site(campsite);
+		long epochDay = day.toEpochDay();
+		site.slots.set(index(epochDay), new Slot(epochDay, uuid, false));
+		site.version.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Atomically takes a free day for the given booking. The day stays pending until {@link #confirm} is called.
+	 */
+	Claim claim(String campsite, String uuid, LocalDate day) {
+		Site site = site(campsite);
+		long epochDay = day.toEpochDay();
+		int i = index(epochDay);
+
+		while (true) {
+			Slot slot = site.slots.get(i);
+			String owner = owner(slot, epochDay);
+
+			if (owner != null)
+				return owner.equals(uuid) ? Claim.ALREADY_OWNED : Claim.TAKEN;
+
+			if (site.slots.compareAndSet(i, slot, new Slot(epochDay, uuid, true))) {
+				site.version.incrementAndGet();
+				return Claim.CLAIMED;
+			}
+		}
+	}
+
+	void confirm(String campsite, String uuid, LocalDate day) {
+		Site site = site(campsite);
+		long epochDay = day.toEpochDay();
+		int i = index(epochDay);
+		Slot slot = site.slots.get(i);
+
+		if (slot != null && slot.pending && uuid.equals(owner(slot, epochDay)) && site.slots.compareAndSet(i, slot, new Slot(epochDay, uuid, false)))
+			changed(campsite, epochDay, true);
+	}
+
+	public void release(String campsite, String uuid, LocalDate day) {
+		Site site = sites.get(campsite);
+
+		if (site == null || !covers(day))
+			return;
+
+		long epochDay = day.toEpochDay();
+		int i = index(epochDay);
+		Slot slot = site.slots.get(i);
+
+		//Only the owner can free a day, a stale release must not wipe somebody else's booking.
+		if (uuid.equals(owner(slot, epochDay)) && site.slots.compareAndSet(i, slot, null)) {
+			site.version.incrementAndGet();
+
+			//a pending day given back was never reported as booked.
+			if (!slot.pending)
+				changed(campsite, epochDay, false);
+		}
+	}
+
+	/**
+	 * Replaces the whole content of the index with the days of the given bookings, without telling the listeners.
+	 */
+	public void load(List<Booking> bookings) {
+		LocalDate start = windowStart();
+		LocalDate end = windowEnd();
+		sites.clear();
+		bookings.forEach(booking -> booking.days(start, end).forEach(day -> put(booking.getCampsite(), booking.getUuid(), day.getDate())));
+	}
+
+	/**
+	 * Compares the index against the given rows and returns how many days differ.
+	 * Differences of a campsite are only repaired when nobody touched it since its version in
+	 * {@code observedVersions}, otherwise the rows may be older than the index and the next run will check again.
+	 * Pending days belong to transactions in flight, so the table can't tell anything about them yet.
+	 */
+	public int reconcile(List<Booking> bookings, Map<String, Long> observedVersions) {
+		Map<String, Map<Long, String>> expected = new HashMap<>();
+		LocalDate start = windowStart();
+		LocalDate end = windowEnd();
+		bookings.forEach(booking -> booking.days(start, end).forEach(day -> expected
+				.computeIfAbsent(booking.getCampsite(), campsite -> new HashMap<>())
+				.put(day.getDate().toEpochDay(), booking.getUuid())));
+
+		//campsites added to the index after the versions were taken are checked too, their version stops the repair.
+		Set<String> campsites = new HashSet<>(observedVersions.keySet());
+		campsites.addAll(expected.keySet());
+		campsites.addAll(sites.keySet());
+		int drift = 0;
+
+		for (String campsite : campsites) {
+			Map<Long, String> days = expected.getOrDefault(campsite, new HashMap<>());
+			Site site = sites.get(campsite);
+
+			//nothing in the index and nothing in the table.
+			if (site == null && days.isEmpty())
+				continue;
+
+			//a campsite nobody had touched yet starts at version 0, so it's repaired only if it's still untouched.
+			long observedVersion = observedVersions.getOrDefault(campsite, 0L);
+			drift += reconcile(campsite, (site == null) ? site(campsite) : site, days, observedVersion);
+		}
+
+		return drift;
+	}
+
+	private int reconcile(String campsite, Site site, Map<Long, String> expected, long observedVersion) {
+		int drift = 0;
+
+		for (LocalDate day = windowStart(); !day.isAfter(windowEnd()); day = day.plusDays(1)) {
+			long epochDay = day.toEpochDay();
+			int i = index(epochDay);
+			Slot slot = site.slots.get(i);
+			String wanted = expected.get(epochDay);
+
+			if ((slot != null && slot.pending && slot.epochDay == epochDay) || Objects.equals(owner(slot, epochDay), wanted))
+				continue;
+
+			drift++;
+
+			if (site.version.get() == observedVersion && site.slots.compareAndSet(i, slot, (wanted == null) ? null : new Slot(epochDay, wanted, false))
+					&& (owner(slot, epochDay) == null) != (wanted == null))
+				changed(campsite, epochDay, wanted != null);
+		}
+
+		return drift;
+	}
+}
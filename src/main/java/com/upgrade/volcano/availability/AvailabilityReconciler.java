@@ -0,0 +1,56 @@
+package com.upgrade.volcano.availability;
+
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.upgrade.volcano.journal.JournalWriteBehind;
+import com.upgrade.volcano.repository.BookingRepository;
+
+/**
+ * Fills the availability index when the application starts and periodically checks it against the booking table.
+ */
+@Component
+//the index has to be loaded before the first request, not by it.
+@Lazy(false)
+public class AvailabilityReconciler {
+
+	private static final Logger logger = LoggerFactory.getLogger(AvailabilityReconciler.class);
+
+	private AvailabilityIndex availabilityIndex;
+	private BookingRepository bookingRepository;
+	private JournalWriteBehind journalWriteBehind;
+
+	public AvailabilityReconciler(AvailabilityIndex availabilityIndex, BookingRepository bookingRepository, @Nullable JournalWriteBehind journalWriteBehind) {
+		this.availabilityIndex = availabilityIndex;
+		this.bookingRepository = bookingRepository;
+		this.journalWriteBehind = journalWriteBehind;
+	}
+
+	//The context is refreshed before the web server starts accepting requests.
+	@EventListener(ContextRefreshedEvent.class)
+	public void load() {
+		availabilityIndex.load(bookingRepository.findOverlapping(availabilityIndex.windowStart(), availabilityIndex.windowEnd()));
+	}
+
+	@Scheduled(fixedDelayString = "${volcano.availability.reconcile-interval:60000}")
+	public void reconcile() {
+		Map<String, Long> versions = availabilityIndex.versions();
+
+		//changes still on their way from the journal to the table would look like drift.
+		if (journalWriteBehind != null && journalWriteBehind.isBehind())
+			return;
+
+		int drift = availabilityIndex.reconcile(bookingRepository.findOverlapping(availabilityIndex.windowStart(), availabilityIndex.windowEnd()), versions);
+
+		if (drift > 0)
+			logger.warn("availability index differs from the booking table on {} day(s)", drift);
+	}
+}
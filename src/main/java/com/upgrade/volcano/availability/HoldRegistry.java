@@ -0,0 +1,248 @@
+package com.upgrade.volcano.availability;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.upgrade.volcano.availability.ReservationEngine.Reservation;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Days put aside for a client for a short while, so it can fill in its details without losing them to somebody
+ * else. A hold is a claim on the availability index that isn't confirmed yet: every availability and conflict
+ * check already sees its days as taken, and nothing is written to the database.
+ *
+ * Holds are only in memory. They expire through a timing wheel ticked by the scheduler, not with one timer
+ * each. Whoever removes a hold from the registry first (confirm, release or expiry) owns its days, so a hold is
+ * never both confirmed and expired.
+ *
+ * A client can only have a few holds at a time, volcano.holds.max-per-client, otherwise a single client could hold
+ * every free day for nothing, one ttl after another.
+ */
+@Component
+public class HoldRegistry {
+
+	public static class Hold {
+		private final String uuid;
+		private final String client;
+		private final String campsite;
+		private final LocalDate from;
+		private final LocalDate to;
+		private final long expiresAt;
+		private final Reservation reservation;
+
+		Hold(String uuid, String client, String campsite, LocalDate from, LocalDate to, long expiresAt, Reservation reservation) {
+			this.uuid = uuid;
+			this.client = client;
+			this.campsite = campsite;
+			this.from = from;
+			this.to = to;
+			this.expiresAt = expiresAt;
+			this.reservation = reservation;
+		}
+
+		public String getUuid() {
+			return uuid;
+		}
+
+		public String getCampsite() {
+			return campsite;
+		}
+
+		public LocalDate getFrom() {
+			return from;
+		}
+
+		public LocalDate getTo() {
+			return to;
+		}
+
+		public Instant getExpiresAt() {
+			return Instant.ofEpochMilli(expiresAt);
+		}
+
+		/**
+		 * The claim on the days, owned by the hold uuid. Whoever took the hold confirms or cancels it.
+		 */
+		public Reservation reservation() {
+			return reservation;
+		}
+	}
+
+	//The client already has as many holds as it can, the earliest of them expires after retryAfterMillis.
+	public static class TooManyHoldsException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		private final long retryAfterMillis;
+
+		//Expected from greedy clients, so skip filling in the stack trace.
+		TooManyHoldsException(long retryAfterMillis) {
+			super(null, null, false, false);
+			this.retryAfterMillis = retryAfterMillis;
+		}
+
+		public long getRetryAfterMillis() {
+			return retryAfterMillis;
+		}
+	}
+
+	private final Map<String, Hold> holds = new ConcurrentHashMap<>();
+	//client to the expiry of each of its holds, by uuid. The inner maps are only touched inside compute.
+	private final Map<String, Map<String, Long>> holdsByClient = new ConcurrentHashMap<>();
+	private final TimingWheel<String> wheel;
+	private final ReservationEngine reservationEngine;
+	private final Counter expired;
+	private final long ttlMillis;
+	private final int maxPerClient;
+
+	public HoldRegistry(ReservationEngine reservationEngine, MeterRegistry meterRegistry,
+			@Value("${volcano.holds.ttl:600000}") long ttlMillis, @Value("${volcano.holds.tick:1000}") long tickMillis,
+			@Value("${volcano.holds.max-per-client:5}") int maxPerClient) {
+		this.reservationEngine = reservationEngine;
+		this.ttlMillis = ttlMillis;
+		this.maxPerClient = maxPerClient;
+		//one turn of the wheel covers the ttl, so most holds expire the first time their bucket comes up.
+		this.wheel = new TimingWheel<>((int) Math.max(1, Math.min(4096, ttlMillis / tickMillis + 1)), tickMillis, System.currentTimeMillis());
+		this.expired = meterRegistry.counter("volcano.holds.expired");
+		meterRegistry.gauge("volcano.holds.active", holds, Map::size);
+	}
+
+	/**
+	 * Holds every day of the campsite between from and to (both inclusive) for the client, or returns null when one
+	 * of them is taken. Throws TooManyHoldsException when the client already has volcano.holds.max-per-client holds.
+	 */
+	public Hold place(String client, String campsite, LocalDate from, LocalDate to) {
+		String uuid = UUID.randomUUID().toString();
+		long now = System.currentTimeMillis();
+		long[] earliest = {Long.MAX_VALUE};
+
+		//the client's place is taken before the days, so holds placed at the same time can't go over the limit together.
+		holdsByClient.compute(client, (key, expiries) -> {
+			if (expiries == null)
+				expiries = new HashMap<>();
+
+			if (expiries.size() < maxPerClient)
+				expiries.put(uuid, now + ttlMillis);
+			else
+				earliest[0] = Collections.min(expiries.values());
+
+			return expiries;
+		});
+
+		if (earliest[0] != Long.MAX_VALUE)
+			throw new TooManyHoldsException(Math.max(0, earliest[0] - now));
+
+		Reservation reservation = reservationEngine.claim(campsite, uuid, from, to);
+
+		if (reservation == null) {
+			forget(client, uuid);
+			return null;
+		}
+
+		Hold hold = new Hold(uuid, client, campsite, from, to, now + ttlMillis, reservation);
+		holds.put(uuid, hold);
+		wheel.schedule(uuid, hold.expiresAt);
+		return hold;
+	}
+
+	private void forget(String client, String uuid) {
+		holdsByClient.computeIfPresent(client, (key, expiries) -> {
+			expiries.remove(uuid);
+			return expiries.isEmpty() ? null : expiries;
+		});
+	}
+
+	public Hold find(String uuid) {
+		Hold hold = holds.get(uuid);
+		return (hold == null || hold.expiresAt < System.currentTimeMillis()) ? null : hold;
+	}
+
+	/**
+	 * Removes the hold and hands its reservation to the caller. Returns null when it doesn't exist or has expired.
+	 */
+	public Hold take(String uuid) {
+		Hold hold = holds.remove(uuid);
+
+		if (hold == null)
+			return null;
+
+		forget(hold.client, uuid);
+
+		//past its deadline but the wheel didn't get to it yet.
+		if (hold.expiresAt < System.currentTimeMillis()) {
+			hold.reservation.cancel();
+			return null;
+		}
+
+		return hold;
+	}
+
+	/**
+	 * Returns a hold handed out by take, for a confirmation that failed for reasons of its own, so the client can
+	 * try again before it expires. One that expired meanwhile gives its days back instead.
+	 */
+	public void putBack(Hold hold) {
+		if (hold.expiresAt < System.currentTimeMillis()) {
+			hold.reservation.cancel();
+			return;
+		}
+
+		//it still counts against its client, even past the limit of placed holds.
+		holdsByClient.compute(hold.client, (key, expiries) -> {
+			if (expiries == null)
+				expiries = new HashMap<>();
+
+			expiries.put(hold.uuid, hold.expiresAt);
+			return expiries;
+		});
+		holds.put(hold.uuid, hold);
+		//its first turn on the wheel may have come and gone while it was out.
+		wheel.schedule(hold.uuid, hold.expiresAt);
+	}
+
+	public boolean release(String uuid) {
+		Hold hold = take(uuid);
+
+		if (hold != null)
+			hold.reservation.cancel();
+
+		return hold != null;
+	}
+
+	@Scheduled(fixedRateString = "${volcano.holds.tick:1000}")
+	public void tick() {
+		expire(System.currentTimeMillis());
+	}
+
+	/**
+	 * Gives back the days of the holds that expired by now, returns how many there were.
+	 */
+	public int expire(long now) {
+		int count = 0;
+
+		for (String uuid : wheel.advance(now)) {
+			Hold hold = holds.remove(uuid);
+
+			//confirmed or released before it expired.
+			if (hold == null)
+				continue;
+
+			forget(hold.client, uuid);
+			hold.reservation.cancel();
+			count++;
+		}
+
+		expired.increment(count);
+		return count;
+	}
+}
@@ -0,0 +1,101 @@
+package com.upgrade.volcano.availability;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.stereotype.Component;
+
+import com.upgrade.volcano.repository.TransactionHooks;
+
+/**
+ * Arbitrates who gets a day of a campsite before anything is written to the database.
+ *
+ * Days are claimed one by one with a compare-and-set on the availability index, and a range is all-or-nothing:
+ * if one of its days is taken every day claimed so far is given back. The overlap check of the writers
+ * (BookingRepository.requireFree) is still there as a backstop for days the index doesn't cover. Campsites are independent: claims on different
+ * campsites never touch the same slots.
+ */
+@Component
+public class ReservationEngine {
+
+	public static class Reservation {
+		private final AvailabilityIndex availabilityIndex;
+		private final String campsite;
+		private final String uuid;
+		private final List<LocalDate> claimed;
+
+		Reservation(AvailabilityIndex availabilityIndex, String campsite, String uuid, List<LocalDate> claimed) {
+			this.availabilityIndex = availabilityIndex;
+			this.campsite = campsite;
+			this.uuid = uuid;
+			this.claimed = claimed;
+		}
+
+		/**
+		 * Turns the claimed days into booked ones, once the rows are committed.
+		 */
+		public void confirm() {
+			claimed.forEach(day -> availabilityIndex.confirm(campsite, uuid, day));
+		}
+
+		/**
+		 * Gives back the days taken by this reservation. Days the booking already had before are kept.
+		 */
+		public void cancel() {
+			claimed.forEach(day -> availabilityIndex.release(campsite, uuid, day));
+		}
+	}
+
+	private AvailabilityIndex availabilityIndex;
+
+	public ReservationEngine(AvailabilityIndex availabilityIndex) {
+		this.availabilityIndex = availabilityIndex;
+	}
+
+	/**
+	 * Claims every day of the campsite between from and to (both inclusive) for the given booking, or none of them.
+	 * Returns null when some day belongs to another booking. The claim is confirmed when the current
+	 * transaction commits and given back when it rolls back.
+	 */
+	public Reservation reserve(String campsite, String uuid, LocalDate from, LocalDate to) {
+		Reservation reservation = claim(campsite, uuid, from, to);
+
+		if (reservation == null)
+			return null;
+
+		TransactionHooks.afterCompletion(committed -> {
+			if (committed)
+				reservation.confirm();
+			else
+				reservation.cancel();
+		});
+
+		return reservation;
+	}
+
+	/**
+	 * Same as reserve, for callers outside of a Spring transaction (the reactive endpoints):
+	 * they have to confirm or cancel the reservation themselves.
+	 */
+	public Reservation claim(String campsite, String uuid, LocalDate from, LocalDate to) {
+		List<LocalDate> claimed = new ArrayList<>();
+
+		for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+			if (!availabilityIndex.covers(day))
+				continue;
+
+			AvailabilityIndex.Claim claim = availabilityIndex.claim(campsite, uuid, day);
+
+			if (claim == AvailabilityIndex.Claim.TAKEN) {
+				claimed.forEach(taken -> availabilityIndex.release(campsite, uuid, taken));
+				return null;
+			}
+
+			if (claim == AvailabilityIndex.Claim.CLAIMED)
+				claimed.add(day);
+		}
+
+		return new Reservation(availabilityIndex, campsite, uuid, claimed);
+	}
+}
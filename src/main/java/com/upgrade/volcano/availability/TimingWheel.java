@@ -0,0 +1,79 @@
+package com.upgrade.volcano.availability;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Hashed timing wheel: a ring of buckets, one per tick, and a cursor that moves one bucket every tick. An item is
+ * put in the bucket the cursor reaches at its deadline, with the number of whole turns it still has to wait, so
+ * scheduling is constant time and a tick only looks at one bucket, however many items there are.
+ *
+ * Items expire up to one tick late, never early. Time is passed in by the caller, so the wheel itself never
+ * sleeps or starts threads.
+ */
+public class TimingWheel<T> {
+
+	private static class Entry<T> {
+		private final T item;
+		private long rounds;
+
+		Entry(T item, long rounds) {
+			this.item = item;
+			this.rounds = rounds;
+		}
+	}
+
+	private final List<List<Entry<T>>> buckets;
+	private final long tickMillis;
+	//guarded by this.
+	private int cursor;
+	private long tickTime;
+	private int size;
+
+	public TimingWheel(int slots, long tickMillis, long now) {
+		this.buckets = new ArrayList<>(slots);
+		this.tickMillis = tickMillis;
+		this.tickTime = now;
+
+		for (int i = 0; i < slots; i++)
+			buckets.add(new ArrayList<>());
+	}
+
+	public synchronized void schedule(T item, long deadline) {
+		//rounded up, and at least the next tick: the current bucket has already been looked at.
+		long ticks = Math.max(1, (deadline - tickTime + tickMillis - 1) / tickMillis);
+		int slots = buckets.size();
+		buckets.get((int) ((cursor + ticks) % slots)).add(new Entry<>(item, (ticks - 1) / slots));
+		size++;
+	}
+
+	/**
+	 * Moves the cursor up to now and returns the items whose deadline has passed.
+	 */
+	public synchronized List<T> advance(long now) {
+		List<T> expired = new ArrayList<>();
+
+		while (tickTime + tickMillis <= now) {
+			tickTime += tickMillis;
+			cursor = (cursor + 1) % buckets.size();
+
+			for (Iterator<Entry<T>> entries = buckets.get(cursor).iterator(); entries.hasNext();) {
+				Entry<T> entry = entries.next();
+
+				if (entry.rounds-- > 0)
+					continue;
+
+				expired.add(entry.item);
+				entries.remove();
+				size--;
+			}
+		}
+
+		return expired;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+}
@@ -0,0 +1,347 @@
+package com.upgrade.volcano.journal;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Append-only journal of booking changes on a memory-mapped file. A change is durable once the future returned by
+ * append completes: records are forced to disk by a single thread, and every record appended while it was busy
+ * goes out with the next force (group commit).
+ *
+ * The journal also keeps the latest record of every live booking. It's rebuilt by replaying the file when the
+ * application starts, and compaction rewrites the file with just those records.
+ *
+ * File layout: a header (magic, format version, sequence of the last compaction) followed by frames made of
+ * payload length, CRC32 of sequence and payload, sequence and payload. A zero length marks the end.
+ */
+@Component
+@ConditionalOnProperty(name = "volcano.journal.enabled", havingValue = "true")
+public class BookingJournal {
+
+	private static final Logger logger = LoggerFactory.getLogger(BookingJournal.class);
+
+	private static final int MAGIC = 0x564a4e4c; //"VJNL"
+	//version 2 added the campsite to every record and version 3 the booking version,
+	//journals of an older version are rewritten when they are opened.
+	static final int FORMAT_VERSION = 3;
+	private static final int HEADER_SIZE = 4 + 4 + 8;
+	private static final int FRAME_HEADER_SIZE = 4 + 4;
+
+	private static class Pending {
+		private final JournalRecord record;
+		private final CompletableFuture<Void> durable = new CompletableFuture<>();
+
+		Pending(JournalRecord record) {
+			this.record = record;
+		}
+	}
+
+	private final Path file;
+	private final int size;
+	private final Map<String, JournalRecord> live = new ConcurrentHashMap<>();
+	private final List<Consumer<List<JournalRecord>>> listeners = new CopyOnWriteArrayList<>();
+	private final Thread syncThread;
+
+	//everything below is guarded by this.
+	private MappedByteBuffer buffer;
+	private long sequence;
+	private int records;
+	private List<Pending> pending = new ArrayList<>();
+	private boolean closed;
+
+	public BookingJournal(
+		@Value("${volcano.journal.dir:journal}") String directory,
+		@Value("${volcano.journal.size:67108864}") int size
+	) throws IOException {
+		this.file = Files.createDirectories(Paths.get(directory)).resolve("bookings.journal");
+		this.size = size;
+
+		boolean exists = Files.exists(file) && Files.size(file) >= HEADER_SIZE;
+		buffer = map(file);
+
+		if (exists) {
+			if (replay() < FORMAT_VERSION)
+				rewrite();
+		}
+		else {
+			writeHeader(buffer, 0L);
+			buffer.force();
+		}
+
+		syncThread = new Thread(this::sync, "journal-sync");
+		syncThread.setDaemon(true);
+		syncThread.start();
+	}
+
+	private MappedByteBuffer map(Path path) throws IOException {
+		//mapping past the end grows the file, the mapping outlives the channel.
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+	}
+
+	private static void writeHeader(ByteBuffer target, long checkpoint) {
+		target.position(0);
+		target.putInt(MAGIC);
+		target.putInt(FORMAT_VERSION);
+		target.putLong(checkpoint);
+	}
+
+	private static int checksum(ByteBuffer source, int from, int length) {
+		ByteBuffer body = source.duplicate();
+		body.limit(from + length);
+		body.position(from);
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		return (int) crc.getValue();
+	}
+
+	private static void writeFrame(ByteBuffer target, long sequence, JournalRecord record) {
+		int start = target.position();
+		target.position(start + FRAME_HEADER_SIZE);
+		target.putLong(sequence);
+		record.writeTo(target);
+
+		int length = target.position() - start - FRAME_HEADER_SIZE;
+		target.putInt(start + 4, checksum(target, start + FRAME_HEADER_SIZE, length));
+		//the length goes last, until then the frame reads as the end of the journal.
+		target.putInt(start, length);
+	}
+
+	private static int frameSize(JournalRecord record) {
+		return FRAME_HEADER_SIZE + 8 + record.size();
+	}
+
+	//returns the format version the journal was written with.
+	private int replay() {
+		buffer.position(0);
+		int magic = buffer.getInt();
+		int version = buffer.getInt();
+
+		if (magic != MAGIC || version < 1 || version > FORMAT_VERSION)
+			throw new IllegalStateException(file + " isn't a booking journal of format version " + FORMAT_VERSION + " or older");
+
+		sequence = buffer.getLong();
+
+		while (buffer.remaining() >= FRAME_HEADER_SIZE) {
+			int start = buffer.position();
+			int length = buffer.getInt();
+
+			if (length == 0) {
+				buffer.position(start);
+				break;
+			}
+
+			int crc = buffer.getInt();
+
+			//a crash in the middle of an append leaves a frame that doesn't check out, it was never acknowledged.
+			if (length < 8 || length > buffer.remaining() || checksum(buffer, start + FRAME_HEADER_SIZE, length) != crc) {
+				logger.warn("discarding an incomplete record at offset {} of {}", start, file);
+
+				for (int i = start; i < buffer.limit(); i++)
+					buffer.put(i, (byte) 0);
+
+				buffer.position(start);
+				break;
+			}
+
+			sequence = Math.max(sequence, buffer.getLong());
+			apply(JournalRecord.readFrom(buffer, version));
+			buffer.position(start + FRAME_HEADER_SIZE + length);
+			records++;
+		}
+
+		logger.info("replayed {} journal record(s) into {} booking(s)", records, live.size());
+		return version;
+	}
+
+	private void apply(JournalRecord record) {
+		if (record.getType() == JournalRecord.Type.DELETED)
+			live.remove(record.getUuid());
+		else
+			live.put(record.getUuid(), record);
+	}
+
+	/**
+	 * Appends a change and returns a future that completes once it's on disk.
+	 */
+	public CompletableFuture<Void> append(JournalRecord record) {
+		Pending append = new Pending(record);
+
+		synchronized (this) {
+			if (closed)
+				throw new IllegalStateException("the booking journal is closed");
+
+			//4 more bytes, so there's always room for the end marker.
+			if (buffer.remaining() < frameSize(record) + 4)
+				compact();
+
+			if (buffer.remaining() < frameSize(record) + 4)
+				throw new IllegalStateException("the booking journal is full, volcano.journal.size is too small");
+
+			writeFrame(buffer, ++sequence, record);
+			apply(record);
+			records++;
+			pending.add(append);
+			notifyAll();
+		}
+
+		return append.durable;
+	}
+
+	/**
+	 * Same as append, but only while the booking is still at the given version. Returns null when another change
+	 * got there first, the record is then not written.
+	 */
+	public synchronized CompletableFuture<Void> appendIfVersion(JournalRecord record, long version) {
+		JournalRecord current = live.get(record.getUuid());
+
+		if (current == null || current.getVersion() != version)
+			return null;
+
+		return append(record);
+	}
+
+	private void sync() {
+		while (true) {
+			List<Pending> batch;
+			MappedByteBuffer target;
+
+			synchronized (this) {
+				try {
+					while (pending.isEmpty() && !closed)
+						wait();
+				}
+				catch (InterruptedException e) {
+					return;
+				}
+
+				if (pending.isEmpty())
+					return;
+
+				batch = pending;
+				pending = new ArrayList<>();
+				target = buffer;
+			}
+
+			try {
+				target.force();
+			}
+			catch (RuntimeException e) {
+				logger.error("couldn't force the booking journal to disk", e);
+				batch.forEach(append -> append.durable.completeExceptionally(e));
+				continue;
+			}
+
+			//listeners hear about records before their writers are answered.
+			List<JournalRecord> durable = batch.stream().map(append -> append.record).collect(Collectors.toList());
+			listeners.forEach(listener -> listener.accept(durable));
+			batch.forEach(append -> append.durable.complete(null));
+		}
+	}
+
+	/**
+	 * Called with every batch of records right after it's forced to disk, from the journal thread.
+	 */
+	public void onDurable(Consumer<List<JournalRecord>> listener) {
+		listeners.add(listener);
+	}
+
+	public JournalRecord find(String uuid) {
+		return live.get(uuid);
+	}
+
+	public Collection<JournalRecord> bookings() {
+		return new ArrayList<>(live.values());
+	}
+
+	/**
+	 * Rewrites the journal with one record per live booking. The new file is complete and on disk before it
+	 * replaces the old one, so a crash at any point leaves one of them whole.
+	 */
+	@Scheduled(fixedDelayString = "${volcano.journal.compaction-interval:600000}")
+	public synchronized void compact() {
+		if (closed || records == live.size())
+			return;
+
+		rewrite();
+	}
+
+	private synchronized void rewrite() {
+		Path next = file.resolveSibling(file.getFileName() + ".compacting");
+
+		try {
+			Files.deleteIfExists(next);
+			MappedByteBuffer compacted = map(next);
+			writeHeader(compacted, sequence);
+
+			for (JournalRecord record : live.values()) {
+				if (compacted.remaining() < frameSize(record) + 4)
+					throw new IllegalStateException("the live bookings don't fit in the booking journal, volcano.journal.size is too small");
+
+				writeFrame(compacted, sequence, record);
+			}
+
+			compacted.force();
+			Files.move(next, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			forceDirectory();
+
+			logger.info("compacted the booking journal from {} to {} record(s)", records, live.size());
+			buffer = compacted;
+			records = live.size();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	//makes the rename durable, not every platform lets a directory be opened for that.
+	private void forceDirectory() {
+		try (FileChannel directory = FileChannel.open(file.getParent(), StandardOpenOption.READ)) {
+			directory.force(true);
+		}
+		catch (IOException e) {
+			logger.debug("couldn't force {}", file.getParent(), e);
+		}
+	}
+
+	/**
+	 * Waits for pending records to reach the disk and stops accepting new ones.
+	 */
+	@PreDestroy
+	public void close() throws InterruptedException {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+
+		syncThread.join();
+	}
+}
@@ -0,0 +1,158 @@
+package com.upgrade.volcano.journal;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import com.upgrade.volcano.repository.Booking;
+
+/**
+ * One change to a booking, as written to the journal. Created and updated records carry the whole booking,
+ * so the last record of a uuid is all that's needed to rebuild it.
+ */
+public final class JournalRecord {
+
+	public enum Type { CREATED, UPDATED, DELETED }
+
+	private final Type type;
+	private final String uuid;
+	private final long version;
+	private final String campsite;
+	private final String name;
+	private final String lastName;
+	private final String email;
+	private final LocalDate from;
+	private final LocalDate to;
+
+	private JournalRecord(Type type, String uuid, long version, String campsite, String name, String lastName, String email, LocalDate from, LocalDate to) {
+		this.type = type;
+		this.uuid = uuid;
+		this.version = version;
+		this.campsite = campsite;
+		this.name = name;
+		this.lastName = lastName;
+		this.email = email;
+		this.from = from;
+		this.to = to;
+	}
+
+	public static JournalRecord created(Booking booking) {
+		return new JournalRecord(Type.CREATED, booking.getUuid(), 0L, booking.getCampsite(), booking.getName(), booking.getLastName(), booking.getEmail(), booking.getDate(), booking.getDateTo());
+	}
+
+	public static JournalRecord updated(JournalRecord current, LocalDate from, LocalDate to) {
+		return new JournalRecord(Type.UPDATED, current.uuid, current.version + 1, current.campsite, current.name, current.lastName, current.email, from, to);
+	}
+
+	//the campsite is kept, so whoever applies the record knows which campsite changed.
+	public static JournalRecord deleted(String uuid, String campsite) {
+		return new JournalRecord(Type.DELETED, uuid, 0L, campsite, null, null, null, null, null);
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public String getUuid() {
+		return uuid;
+	}
+
+	//same as the version of the booking rows, moved forward by every update.
+	public long getVersion() {
+		return version;
+	}
+
+	public String getCampsite() {
+		return campsite;
+	}
+
+	//the booking as it's stored in the table, null for a deleted one.
+	public Booking row() {
+		if (type == Type.DELETED)
+			return null;
+
+		Booking row = new Booking(name, lastName, email, from, to);
+		row.setUuid(uuid);
+		row.setCampsite(campsite);
+		row.setVersion(version);
+		return row;
+	}
+
+	//one entry per booked day, like the booking endpoints list them.
+	public List<Booking> days() {
+		return (type == Type.DELETED) ? new ArrayList<>() : row().days();
+	}
+
+	/*
+	 * Layout: type, uuid (16 bytes), first and last epoch day, booking version, then name, last name, email and
+	 * campsite as a short length (-1 for null) followed by their UTF-8 bytes. Version 1 records have no campsite
+	 * and versions 1 and 2 have no booking version.
+	 */
+	void writeTo(ByteBuffer buffer) {
+		UUID value = UUID.fromString(uuid);
+		buffer.put((byte) type.ordinal());
+		buffer.putLong(value.getMostSignificantBits());
+		buffer.putLong(value.getLeastSignificantBits());
+		buffer.putLong((from == null) ? 0L : from.toEpochDay());
+		buffer.putLong((to == null) ? 0L : to.toEpochDay());
+		buffer.putLong(version);
+		putString(buffer, name);
+		putString(buffer, lastName);
+		putString(buffer, email);
+		putString(buffer, campsite);
+	}
+
+	int size() {
+		return 1 + 16 + 8 + 8 + 8 + stringSize(name) + stringSize(lastName) + stringSize(email) + stringSize(campsite);
+	}
+
+	static JournalRecord readFrom(ByteBuffer buffer, int version) {
+		Type type = Type.values()[buffer.get()];
+		String uuid = new UUID(buffer.getLong(), buffer.getLong()).toString();
+		long from = buffer.getLong();
+		long to = buffer.getLong();
+		long bookingVersion = (version < 3) ? 0L : buffer.getLong();
+		String name = getString(buffer);
+		String lastName = getString(buffer);
+		String email = getString(buffer);
+		String campsite = (version < 2) ? Booking.DEFAULT_CAMPSITE : getString(buffer);
+
+		return (type == Type.DELETED)
+				? deleted(uuid, campsite)
+				: new JournalRecord(type, uuid, bookingVersion, campsite, name, lastName, email, LocalDate.ofEpochDay(from), LocalDate.ofEpochDay(to));
+	}
+
+	private static int stringSize(String value) {
+		int length = (value == null) ? 0 : value.getBytes(StandardCharsets.UTF_8).length;
+
+		if (length > Short.MAX_VALUE)
+			throw new IllegalArgumentException("journal fields are limited to " + Short.MAX_VALUE + " bytes");
+
+		return 2 + length;
+	}
+
+	private static void putString(ByteBuffer buffer, String value) {
+		if (value == null) {
+			buffer.putShort((short) -1);
+			return;
+		}
+
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		buffer.putShort((short) bytes.length);
+		buffer.put(bytes);
+	}
+
+	private static String getString(ByteBuffer buffer) {
+		short length = buffer.getShort();
+
+		if (length < 0)
+			return null;
+
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
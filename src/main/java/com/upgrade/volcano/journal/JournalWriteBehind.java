@@ -0,0 +1,211 @@
+package com.upgrade.volcano.journal;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.upgrade.volcano.archive.BookingArchiver;
+import com.upgrade.volcano.repository.ArchivedBookingRepository;
+import com.upgrade.volcano.repository.Booking;
+import com.upgrade.volcano.repository.BookingRepository;
+import com.upgrade.volcano.repository.BookingVersion;
+
+/**
+ * Copies durable journal records into the booking table in the background, many records per transaction.
+ * When the application starts the table is filled from the journal, before the availability index is loaded from it.
+ */
+@Component
+@ConditionalOnProperty(name = "volcano.journal.enabled", havingValue = "true")
+//the table is replayed from the journal at startup, even when lazy initialization is on.
+@Lazy(false)
+public class JournalWriteBehind {
+
+	private static final Logger logger = LoggerFactory.getLogger(JournalWriteBehind.class);
+	private static final int LOAD_CHUNK = 5000;
+	private static final long MAX_RETRY_DELAY = 30000;
+
+	private final BookingJournal bookingJournal;
+	private final BookingRepository bookingRepository;
+	private final ArchivedBookingRepository archivedBookingRepository;
+	private final BookingArchiver bookingArchiver;
+	private final BookingVersion bookingVersion;
+	private final TransactionTemplate transactionTemplate;
+	private final int batchSize;
+	private final long retryDelay;
+	private final BlockingQueue<JournalRecord> queue = new LinkedBlockingQueue<>();
+	//records accepted by the journal and not committed to the table yet.
+	private final AtomicLong backlog = new AtomicLong();
+	private final Thread writer = new Thread(this::write, "journal-write-behind");
+	private volatile boolean running = true;
+
+	public JournalWriteBehind(BookingJournal bookingJournal, BookingRepository bookingRepository, ArchivedBookingRepository archivedBookingRepository,
+			BookingArchiver bookingArchiver, BookingVersion bookingVersion,
+			PlatformTransactionManager transactionManager, @Value("${volcano.journal.batch-size:500}") int batchSize,
+			@Value("${volcano.journal.retry-delay:100}") long retryDelay, Environment environment) {
+		//reactive writes go straight to the table, the next start would replace them with what the journal has.
+		if (environment.acceptsProfiles(Profiles.of("reactive")))
+			throw new IllegalStateException("volcano.journal.enabled can't be on with the reactive profile, its writes don't go through the journal");
+
+		this.bookingJournal = bookingJournal;
+		this.bookingRepository = bookingRepository;
+		this.archivedBookingRepository = archivedBookingRepository;
+		this.bookingArchiver = bookingArchiver;
+		this.bookingVersion = bookingVersion;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.batchSize = batchSize;
+		this.retryDelay = retryDelay;
+	}
+
+	@PostConstruct
+	public void start() {
+		load(bookingJournal.bookings());
+		bookingJournal.onDurable(this::enqueue);
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	//The journal is the source of truth, whatever the table and the archive had is replaced. Bookings that are over
+	//go straight back to the archive, the journal keeps them since it's the only copy of the archive that survives a
+	//restart. It's one transaction, like the snapshot load: a failure leaves the tables as they were, never half
+	//filled, and the application doesn't start.
+	private void load(Collection<JournalRecord> bookings) {
+		List<Booking> rows = new ArrayList<>();
+		bookings.forEach(booking -> rows.add(booking.row()));
+
+		transactionTemplate.execute(status -> {
+			bookingRepository.deleteAllInBatch();
+			archivedBookingRepository.deleteAllInBatch();
+
+			for (int start = 0; start < rows.size(); start += LOAD_CHUNK) {
+				bookingRepository.saveAll(rows.subList(start, Math.min(rows.size(), start + LOAD_CHUNK)));
+				bookingRepository.flush();
+			}
+
+			LocalDate cutoff = bookingArchiver.cutoff();
+
+			int moved;
+
+			do
+				moved = bookingArchiver.moveBatch(cutoff);
+			while (moved > 0);
+
+			return null;
+		});
+
+		logger.info("restored {} booking(s) from the journal", bookings.size());
+	}
+
+	private void enqueue(List<JournalRecord> records) {
+		backlog.addAndGet(records.size());
+		queue.addAll(records);
+	}
+
+	/**
+	 * Whether some durable changes aren't in the booking table yet.
+	 */
+	public boolean isBehind() {
+		return backlog.get() > 0;
+	}
+
+	private void write() {
+		List<JournalRecord> batch = new ArrayList<>();
+
+		while (running || !queue.isEmpty()) {
+			try {
+				JournalRecord first = queue.poll(100, TimeUnit.MILLISECONDS);
+
+				if (first == null)
+					continue;
+
+				batch.add(first);
+				queue.drainTo(batch, batchSize - 1);
+				write(batch);
+				backlog.addAndGet(-batch.size());
+				batch.clear();
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private void write(List<JournalRecord> batch) throws InterruptedException {
+		try {
+			transactionTemplate.execute(status -> {
+				batch.forEach(this::apply);
+				batch.stream().map(JournalRecord::getCampsite).distinct().forEach(bookingVersion::bumpAfterCommit);
+				return null;
+			});
+		}
+		catch (RuntimeException e) {
+			//one record the table refuses shouldn't hold back the rest of the batch.
+			logger.warn("couldn't write a batch of {} journal record(s), retrying them one by one", batch.size(), e);
+
+			for (JournalRecord record : batch)
+				write(record);
+		}
+	}
+
+	/*
+	 * The client was told the change is done, so a record is never dropped: it's retried, waiting longer each time,
+	 * until the table takes it. Meanwhile the backlog stays above zero and the reconciler leaves the index alone, the
+	 * index still has the booking the table is missing. Records after it wait, they may change the same booking.
+	 */
+	private void write(JournalRecord record) throws InterruptedException {
+		long delay = retryDelay;
+
+		for (int attempt = 1; ; attempt++) {
+			try {
+				transactionTemplate.execute(status -> {
+					apply(record);
+					bookingVersion.bumpAfterCommit(record.getCampsite());
+					return null;
+				});
+				return;
+			}
+			catch (RuntimeException e) {
+				//on shutdown it stays in the journal, and it's replayed into the table on the next start.
+				if (!running)
+					return;
+
+				logger.error("couldn't write the journal record of booking {} to the table (attempt {}), retrying in {} ms",
+						record.getUuid(), attempt, delay, e);
+				Thread.sleep(delay);
+				delay = Math.min(delay * 2, MAX_RETRY_DELAY);
+			}
+		}
+	}
+
+	private void apply(JournalRecord record) {
+		if (record.getType() != JournalRecord.Type.CREATED)
+			bookingRepository.deleteByUuid(record.getUuid());
+
+		if (record.getType() != JournalRecord.Type.DELETED)
+			bookingRepository.save(record.row());
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		running = false;
+		writer.join();
+	}
+}
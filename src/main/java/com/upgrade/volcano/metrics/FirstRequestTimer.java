@@ -0,0 +1,69 @@
+package com.upgrade.volcano.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.TimeGauge;
+import reactor.core.publisher.Mono;
+
+/**
+ * Reports how long it took from the start of the JVM until the first request was answered successfully,
+ * as volcano.startup.first-request. It's a servlet filter and a WebFilter, each server only picks the one it runs.
+ */
+@Component
+public class FirstRequestTimer extends OncePerRequestFilter implements WebFilter {
+
+	private static final Logger logger = LoggerFactory.getLogger(FirstRequestTimer.class);
+
+	private final MeterRegistry meterRegistry;
+	private final AtomicBoolean served = new AtomicBoolean();
+	//held here, the gauge only keeps a weak reference to it.
+	private final AtomicLong firstRequestMillis = new AtomicLong();
+
+	public FirstRequestTimer(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws ServletException, IOException {
+		chain.doFilter(request, response);
+		answered(response.getStatus());
+	}
+
+	@Override
+	public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+		//a handler that doesn't set a status answers 200.
+		return chain.filter(exchange).doOnSuccess(done -> {
+			HttpStatus status = exchange.getResponse().getStatusCode();
+			answered((status == null) ? HttpStatus.OK.value() : status.value());
+		});
+	}
+
+	private void answered(int status) {
+		if (served.get() || status >= 400 || !served.compareAndSet(false, true))
+			return;
+
+		long millis = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+		firstRequestMillis.set(millis);
+		TimeGauge.builder("volcano.startup.first-request", firstRequestMillis, TimeUnit.MILLISECONDS, AtomicLong::get).register(meterRegistry);
+		logger.info("first request served {} ms after the JVM started", millis);
+	}
+}
@@ -0,0 +1,95 @@
+package com.upgrade.volcano.metrics;
+
+import java.lang.reflect.Method;
+import java.time.LocalDate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.transaction.TransactionManagerCustomizers;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.upgrade.volcano.availability.AvailabilityIndex;
+import com.upgrade.volcano.repository.BookingRepository;
+import com.upgrade.volcano.resources.Campsites;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Booking specific metrics, on top of the http.server.requests timers Spring Boot records for every handler.
+ * Everything is scraped from the management port, see application.properties.
+ */
+@Configuration
+public class MetricsConfiguration {
+
+	//Static, so post processors don't force this configuration (and what it needs) to be created too early.
+	@Bean
+	public static BeanPostProcessor repositoryTimers(ObjectProvider<MeterRegistry> meterRegistry) {
+		return new BeanPostProcessor() {
+			@Override
+			public Object postProcessAfterInitialization(Object bean, String beanName) {
+				if (!(bean instanceof BookingRepository))
+					return bean;
+
+				//one timer per repository method, looked up once.
+				Map<Method, Timer> timers = new ConcurrentHashMap<>();
+				ProxyFactory proxyFactory = new ProxyFactory();
+				proxyFactory.setTarget(bean);
+				proxyFactory.addInterface(BookingRepository.class);
+				proxyFactory.addAdvice((MethodInterceptor) invocation -> {
+					Timer timer = timers.computeIfAbsent(invocation.getMethod(), method -> Timer.builder("volcano.repository")
+							.tag("method", method.getName())
+							.publishPercentileHistogram()
+							.register(meterRegistry.getObject()));
+					long start = System.nanoTime();
+
+					try {
+						return invocation.proceed();
+					}
+					finally {
+						timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+					}
+				});
+
+				return proxyFactory.getProxy();
+			}
+		};
+	}
+
+	//Takes the place of the transaction manager Spring Boot would create, customized the same way.
+	@Bean
+	public PlatformTransactionManager transactionManager(MeterRegistry meterRegistry, ObjectProvider<TransactionManagerCustomizers> transactionManagerCustomizers) {
+		TimedTransactionManager transactionManager = new TimedTransactionManager(meterRegistry);
+		transactionManagerCustomizers.ifAvailable(customizers -> customizers.customize(transactionManager));
+		return transactionManager;
+	}
+
+	//Read from the in-memory index on every scrape, never from the database. Days are counted over the configured
+	//campsites, a campsite without any booking yet has all its days free.
+	@Bean
+	public MeterBinder availabilityGauges(AvailabilityIndex availabilityIndex, Campsites campsites) {
+		return registry -> {
+			Gauge.builder("volcano.availability.days", availabilityIndex, index -> countBooked(index, campsites))
+				.tag("state", "booked")
+				.register(registry);
+			Gauge.builder("volcano.availability.days", availabilityIndex, index -> campsites.names().size() * AvailabilityIndex.MAX_DAYS_AHEAD - countBooked(index, campsites))
+				.tag("state", "free")
+				.register(registry);
+		};
+	}
+
+	private static long countBooked(AvailabilityIndex index, Campsites campsites) {
+		LocalDate from = LocalDate.now().plusDays(1);
+		LocalDate to = LocalDate.now().plusDays(AvailabilityIndex.MAX_DAYS_AHEAD);
+		return campsites.names().stream().mapToLong(campsite -> index.countBooked(campsite, from, to)).sum();
+	}
+}
@@ -0,0 +1,51 @@
+package com.upgrade.volcano.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.DefaultTransactionStatus;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * The JPA transaction manager Spring Boot would create, which also records how long each transaction stays open,
+ * from begin to commit or rollback. It's still a JpaTransactionManager, so whatever looks it up by type finds it.
+ * Joining an existing transaction isn't timed again.
+ */
+public class TimedTransactionManager extends JpaTransactionManager {
+
+	private final Timer committed;
+	private final Timer rolledBack;
+
+	public TimedTransactionManager(MeterRegistry meterRegistry) {
+		this.committed = Timer.builder("volcano.transactions").tag("outcome", "commit").publishPercentileHistogram().register(meterRegistry);
+		this.rolledBack = Timer.builder("volcano.transactions").tag("outcome", "rollback").publishPercentileHistogram().register(meterRegistry);
+	}
+
+	//Called once the transaction has begun and its synchronizations are ready, so the timer is just one more of them.
+	@Override
+	protected void prepareSynchronization(DefaultTransactionStatus status, TransactionDefinition definition) {
+		super.prepareSynchronization(status, definition);
+
+		if (status.isNewTransaction() && status.isNewSynchronization())
+			TransactionSynchronizationManager.registerSynchronization(new Timing(System.nanoTime()));
+	}
+
+	private class Timing extends TransactionSynchronizationAdapter {
+		private final long start;
+
+		private Timing(long start) {
+			this.start = start;
+		}
+
+		//a commit of a transaction marked rollback-only ends up here as rolled back.
+		@Override
+		public void afterCompletion(int status) {
+			(status == STATUS_COMMITTED ? committed : rolledBack).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		}
+	}
+}
@@ -0,0 +1,88 @@
+package com.upgrade.volcano.repository;
+
+import java.time.LocalDate;
+
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+/**
+ * A booking that's already over, moved out of the booking table by the archiver. It keeps the id and
+ * every column it had there. Archived rows are never changed, they are only read by GET /booking.
+ */
+@Entity
+@Table(
+	name = "booking_archive",
+	uniqueConstraints = @UniqueConstraint(name = "booking_archive_campsite_date_uk", columnNames = {"campsite", "date"}),
+	indexes = @Index(name = "booking_archive_uuid_idx", columnList = "uuid")
+)
+public class ArchivedBooking implements BookingDay {
+
+	@Id
+	private long id;
+	@Convert(converter = UuidBinaryConverter.class)
+	@Column(columnDefinition = "binary(16)")
+	private String uuid;
+	@Column(nullable = false, length = 64)
+	private String campsite;
+	private long version;
+	private String email;
+	private String name;
+	@Column(name="last_name")
+	private String lastName;
+	private LocalDate date;
+	@Column(name="date_to")
+	private LocalDate dateTo;
+
+	public ArchivedBooking() {
+
+	}
+
+	public Booking toBooking() {
+		Booking booking = new Booking(name, lastName, email, date, uuid);
+		booking.setDateTo(dateTo);
+		booking.setCampsite(campsite);
+		booking.setVersion(version);
+		return booking;
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public String getUuid() {
+		return uuid;
+	}
+
+	public String getCampsite() {
+		return campsite;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public String getEmail() {
+		return email;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getLastName() {
+		return lastName;
+	}
+
+	public LocalDate getDate() {
+		return date;
+	}
+
+	public LocalDate getDateTo() {
+		return dateTo;
+	}
+}
@@ -0,0 +1,46 @@
+package com.upgrade.volcano.repository;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.stream.Stream;
+
+import javax.persistence.QueryHint;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+
+public interface ArchivedBookingRepository extends JpaRepository<ArchivedBooking, Long> {
+	//Same range lookups as BookingRepository.
+	@Query("select r from ArchivedBooking r where r.campsite = :campsite and r.date >= :earliest and r.date <= :to and r.dateTo >= :from order by r.date")
+	public List<ArchivedBooking> findOverlapping(@Param("campsite") String campsite, @Param("earliest") LocalDate earliest, @Param("from") LocalDate from, @Param("to") LocalDate to);
+	
+	public default List<ArchivedBooking> findOverlapping(String campsite, LocalDate from, LocalDate to) {
+		return findOverlapping(campsite, from.minusDays(BookingRepository.LONGEST_BOOKING_DAYS - 1), from, to);
+	}
+	
+	public List<ArchivedBooking> findByUuid(String uuid);
+	
+	//Has to be consumed inside a transaction and closed afterwards.
+	@QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "500"))
+	@Query("select r.uuid as uuid, r.date as date, r.dateTo as dateTo from ArchivedBooking r where r.campsite = :campsite and r.date >= :earliest and r.date <= :to and r.dateTo >= :from order by r.date")
+	public Stream<BookingDay> streamByDateRange(@Param("campsite") String campsite, @Param("earliest") LocalDate earliest, @Param("from") LocalDate from, @Param("to") LocalDate to);
+	
+	public default Stream<BookingDay> streamByDateRange(String campsite, LocalDate from, LocalDate to) {
+		return streamByDateRange(campsite, from.minusDays(BookingRepository.LONGEST_BOOKING_DAYS - 1), from, to);
+	}
+	
+	//Same columns as BookingRepository.streamAllRows, for the snapshot.
+	@QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+	@Query("select r.uuid, r.name, r.lastName, r.email, r.date, r.dateTo, r.campsite, r.version from ArchivedBooking r")
+	public Stream<Object[]> streamAllRows();
+	
+	//A merge instead of an insert, so a booking that reached the archive before (e.g. restored again from the journal)
+	//replaces its old copy instead of failing the whole batch.
+	@Modifying
+	@Query(value = "merge into booking_archive (id, uuid, campsite, version, name, last_name, email, date, date_to) key (campsite, date) "
+			+ "select id, uuid, campsite, version, name, last_name, email, date, date_to from booking where id in :ids", nativeQuery = true)
+	public int copyFromBookings(@Param("ids") List<Long> ids);
+}
@@ -1,31 +1,53 @@
 package com.upgrade.volcano.repository;
 
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.persistence.Column;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.Id;
-import javax.persistence.Transient;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
 import javax.persistence.GenerationType;
 
 @Entity
-public class Booking {
-
+//One row per booking, from date to dateTo. No constraint can keep two ranges from overlapping, writers check it
+//themselves, see BookingRepository.requireFree. The campsite index serves those checks and the window queries.
+@Table(indexes = {
+	@Index(name = "booking_uuid_idx", columnList = "uuid"),
+	@Index(name = "booking_campsite_date_idx", columnList = "campsite, date"),
+	@Index(name = "booking_date_idx", columnList = "date")
+})
+public class Booking implements BookingDay {
+
+	//Bookings that don't name a campsite, like every booking made before there was more than one.
+	public static final String DEFAULT_CAMPSITE = "main";
+
+	//A pooled sequence instead of IDENTITY, otherwise Hibernate can't batch the inserts of an import.
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "booking_seq")
+	@SequenceGenerator(name = "booking_seq", sequenceName = "booking_seq", allocationSize = 50)
 	private long id;
+	@Convert(converter = UuidBinaryConverter.class)
+	@Column(columnDefinition = "binary(16)")
 	private String uuid;
+	@Column(nullable = false, length = 64)
+	private String campsite = DEFAULT_CAMPSITE;
 	private String email;
 	private String name;
 	@Column(name="last_name")
 	private String lastName;
-	@Column(unique=true)
 	private LocalDate date;
-	//Maybe we change this in the future to so it's worth to keep this value here. 
-	// This could be useful for a few hours booking and not only daily bookings.	
+	//Last booked day, included.
 	@Column(name="date_to")
 	private LocalDate dateTo;
+	//Moved forward by each change, see BookingRepository.claimVersion.
+	//Not a JPA @Version: bookings are changed with bulk statements, which Hibernate doesn't version.
+	private long version;
 	
 	public Booking() {
 		
@@ -36,7 +58,7 @@ public class Booking {
 		this.lastName = lastName;
 		this.email = email;
 		this.date = date;
-		this.dateTo = date; //Maybe we change this in the future so it's worth to keep this value here.
+		this.dateTo = date;
 		this.uuid = uuid;
 	}
 	
@@ -103,5 +125,44 @@ public class Booking {
 	public void setUuid(String uuid) {
 		this.uuid = uuid;
 	}
+
+	public String getCampsite() {
+		return campsite;
+	}
+
+	public void setCampsite(String campsite) {
+		this.campsite = campsite;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	public void setVersion(long version) {
+		this.version = version;
+	}
+	
+	/**
+	 * One copy of the booking per day, the way the endpoints list bookings.
+	 */
+	public List<Booking> days() {
+		return days(date, dateTo);
+	}
+
+	/**
+	 * Same as {@link #days()}, only the days between from and to.
+	 */
+	public List<Booking> days(LocalDate from, LocalDate to) {
+		List<Booking> days = new ArrayList<>();
+
+		for (LocalDate day = date.isBefore(from) ? from : date; !day.isAfter(dateTo) && !day.isAfter(to); day = day.plusDays(1)) {
+			Booking copy = new Booking(name, lastName, email, day, uuid);
+			copy.setCampsite(campsite);
+			copy.setVersion(version);
+			days.add(copy);
+		}
+
+		return days;
+	}
 	
 }
@@ -0,0 +1,15 @@
+package com.upgrade.volcano.repository;
+
+import java.time.LocalDate;
+
+/**
+ * Read-only view of a booked day. Rows read through it aren't managed entities, so they don't pile up
+ * in the persistence context while a long range is streamed.
+ */
+public interface BookingDay {
+	String getUuid();
+
+	LocalDate getDate();
+
+	LocalDate getDateTo();
+}
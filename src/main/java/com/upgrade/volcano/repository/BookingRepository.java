@@ -2,18 +2,97 @@ package com.upgrade.volcano.repository;
 
 import java.time.LocalDate;
 import java.util.List;
+import java.util.stream.Stream;
 
+import javax.persistence.QueryHint;
+
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.data.repository.query.Param;
 
 public interface BookingRepository extends JpaRepository<Booking, Long> {
-	public List<Booking> findByDateGreaterThanEqualAndDateLessThanEqual(LocalDate from, LocalDate to);
+	//Bookings are 1 to 3 days long (BookingResource.validateDates), so one overlapping a range starts at most this
+	//many days before it. That turns the overlap into a bounded scan of the (campsite, date) index.
+	public static final long LONGEST_BOOKING_DAYS = 3L;
+	
+	//Bookings with at least one day between from and to, of every campsite.
+	@Query("select r from Booking r where r.date >= :earliest and r.date <= :to and r.dateTo >= :from")
+	public List<Booking> findOverlapping(@Param("earliest") LocalDate earliest, @Param("from") LocalDate from, @Param("to") LocalDate to);
+	
+	public default List<Booking> findOverlapping(LocalDate from, LocalDate to) {
+		return findOverlapping(from.minusDays(LONGEST_BOOKING_DAYS - 1), from, to);
+	}
+	
+	@Query("select r from Booking r where r.campsite = :campsite and r.date >= :earliest and r.date <= :to and r.dateTo >= :from order by r.date")
+	public List<Booking> findOverlapping(@Param("campsite") String campsite, @Param("earliest") LocalDate earliest, @Param("from") LocalDate from, @Param("to") LocalDate to);
+	
+	//Ordered by date, bookings of a campsite never overlap so their days come out in order too.
+	public default List<Booking> findOverlapping(String campsite, LocalDate from, LocalDate to) {
+		return findOverlapping(campsite, from.minusDays(LONGEST_BOOKING_DAYS - 1), from, to);
+	}
 	
 	public List<Booking> findByUuid(String uuid);
 	
+	//Has to be consumed inside a transaction and closed afterwards.
+	@QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "500"))
+	@Query("select r.uuid as uuid, r.date as date, r.dateTo as dateTo from Booking r where r.campsite = :campsite and r.date >= :earliest and r.date <= :to and r.dateTo >= :from order by r.date")
+	public Stream<BookingDay> streamByDateRange(@Param("campsite") String campsite, @Param("earliest") LocalDate earliest, @Param("from") LocalDate from, @Param("to") LocalDate to);
+	
+	public default Stream<BookingDay> streamByDateRange(String campsite, LocalDate from, LocalDate to) {
+		return streamByDateRange(campsite, from.minusDays(LONGEST_BOOKING_DAYS - 1), from, to);
+	}
+	
+	//Plain values instead of entities, so nothing piles up in the persistence context while the whole table goes by.
+	@QueryHints(@QueryHint(name = "org.hibernate.fetchSize", value = "1000"))
+	@Query("select r.uuid, r.name, r.lastName, r.email, r.date, r.dateTo, r.campsite, r.version from Booking r")
+	public Stream<Object[]> streamAllRows();
+	
+	//Moves the booking to the next version, as long as nobody did it first. Returns 0 when the booking isn't at that
+	//version anymore. The row stays locked until the transaction ends, so a concurrent editor of the same booking
+	//waits for it and then finds the version moved. Editors of other bookings of the campsite still queue up behind
+	//the campsite lock of requireFree.
 	@Modifying(clearAutomatically = true)
-	@Query(value = "update Booking r set r.date =:date, r.date_to =:date where r.id =:id", nativeQuery = true)
-	public void changeDates(@Param("date") LocalDate date, @Param("id") long id);
+	@Query("update Booking r set r.version = r.version + 1 where r.uuid =:uuid and r.version =:version")
+	public int claimVersion(@Param("uuid") String uuid, @Param("version") long version);
+	
+	@Modifying(clearAutomatically = true)
+	@Query("update Booking r set r.date =:from, r.dateTo =:to where r.uuid =:uuid")
+	public int changeDates(@Param("uuid") String uuid, @Param("from") LocalDate from, @Param("to") LocalDate to);
+	
+	//H2 updates the row even when it's already there, so the row stays locked until the transaction ends.
+	@Modifying
+	@Query(value = "merge into campsite_lock (campsite) key (campsite) values (:campsite)", nativeQuery = true)
+	public int lockCampsite(@Param("campsite") String campsite);
+	
+	@Query("select count(r) from Booking r where r.campsite = :campsite and r.date >= :earliest and r.date <= :to and r.dateTo >= :from and r.uuid <> :uuid")
+	public long countOverlapping(@Param("campsite") String campsite, @Param("uuid") String uuid, @Param("earliest") LocalDate earliest, @Param("from") LocalDate from, @Param("to") LocalDate to);
+	
+	/**
+	 * Fails when a booking other than the given one has a day between from and to on the campsite. The writers of a
+	 * campsite take turns from here until their transaction ends, so nobody can take those days in between. This is
+	 * the last word, the availability index already turned away almost everybody who'd fail here.
+	 */
+	public default void requireFree(String campsite, String uuid, LocalDate from, LocalDate to) {
+		lockCampsite(campsite);
+		
+		if (countOverlapping(campsite, uuid, from.minusDays(LONGEST_BOOKING_DAYS - 1), from, to) > 0)
+			throw new DataIntegrityViolationException("campsite " + campsite + " is taken between " + from + " and " + to);
+	}
+	
+	//Bookings the archiver moves next, the ones over by that date, oldest first.
+	@Query("select r.id from Booking r where r.dateTo < :date order by r.date")
+	public List<Long> findIdsByDateToBefore(@Param("date") LocalDate date, Pageable page);
+	
+	@Modifying(clearAutomatically = true)
+	@Query("delete from Booking r where r.id in :ids")
+	public int deleteByIdIn(@Param("ids") List<Long> ids);
+	
+	//Pending inserts go first, a booking written and removed in the same transaction has to be there to be removed.
+	@Modifying(flushAutomatically = true, clearAutomatically = true)
+	@Query("delete from Booking r where r.uuid =:uuid")
+	public int deleteByUuid(@Param("uuid") String uuid);
 }
@@ -0,0 +1,37 @@
+package com.upgrade.volcano.repository;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Counters of committed booking changes, one per campsite and one for all of them. Anything derived from the
+ * booking table is still valid as long as the counter it was computed under hasn't moved.
+ */
+@Component
+public class BookingVersion {
+
+	private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+	//A LongAdder, so campsites don't compete for the total either.
+	private final LongAdder total = new LongAdder();
+
+	public long current() {
+		return total.sum();
+	}
+
+	public long current(String campsite) {
+		AtomicLong version = versions.get(campsite);
+		return (version == null) ? 0L : version.get();
+	}
+
+	//Bumped after the commit, so a reader that saw the old version can never cache the new rows under it for long.
+	public void bumpAfterCommit(String campsite) {
+		TransactionHooks.afterCommit(() -> {
+			versions.computeIfAbsent(campsite, name -> new AtomicLong()).incrementAndGet();
+			total.increment();
+		});
+	}
+}
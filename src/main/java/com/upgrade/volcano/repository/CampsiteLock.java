@@ -0,0 +1,27 @@
+package com.upgrade.volcano.repository;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * One row per campsite, only there to be locked: a transaction writing bookings of a campsite holds its row until
+ * it ends, see BookingRepository.requireFree. Rows are created the first time a campsite is written.
+ */
+@Entity
+@Table(name = "campsite_lock")
+public class CampsiteLock {
+
+	@Id
+	@Column(length = 64)
+	private String campsite;
+
+	public CampsiteLock() {
+
+	}
+
+	public String getCampsite() {
+		return campsite;
+	}
+}
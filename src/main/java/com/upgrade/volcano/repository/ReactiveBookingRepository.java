@@ -0,0 +1,136 @@
+package com.upgrade.volcano.repository;
+
+import java.time.LocalDate;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.data.r2dbc.core.DatabaseClient.GenericExecuteSpec;
+import org.springframework.stereotype.Component;
+
+import io.r2dbc.spi.Row;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * The queries of BookingRepository used by the booking endpoints, over R2DBC. It works on the same table
+ * Hibernate creates, so both implementations share the schema, the booking_seq sequence and the binary uuids.
+ */
+@Component
+@Profile("reactive")
+public class ReactiveBookingRepository {
+
+	private static final String COLUMNS = "select r.uuid, r.name, r.last_name, r.email, r.date, r.date_to, r.campsite, r.version from booking r ";
+	//bookings with a day between from and to, see BookingRepository.findOverlapping.
+	private static final String RANGE = "where r.campsite = :campsite and r.date >= :earliest and r.date <= :to and r.date_to >= :from ";
+
+	private final DatabaseClient databaseClient;
+
+	public ReactiveBookingRepository(DatabaseClient databaseClient) {
+		this.databaseClient = databaseClient;
+	}
+
+	private static Booking toBooking(Row row) {
+		Booking booking = new Booking(row.get("name", String.class), row.get("last_name", String.class), row.get("email", String.class),
+				row.get("date", LocalDate.class), UuidBinaryConverter.fromBytes(row.get("uuid", byte[].class)));
+		booking.setDateTo(row.get("date_to", LocalDate.class));
+		booking.setCampsite(row.get("campsite", String.class));
+		booking.setVersion(row.get("version", Long.class));
+		return booking;
+	}
+
+	private static GenericExecuteSpec bind(GenericExecuteSpec spec, String name, Object value, Class<?> type) {
+		return (value == null) ? spec.bindNull(name, type) : spec.bind(name, value);
+	}
+
+	private GenericExecuteSpec bindRange(String sql, String campsite, LocalDate from, LocalDate to) {
+		return databaseClient.execute(sql)
+				.bind("campsite", campsite)
+				.bind("earliest", from.minusDays(BookingRepository.LONGEST_BOOKING_DAYS - 1))
+				.bind("from", from)
+				.bind("to", to);
+	}
+
+	public Flux<Booking> findByDateRangeOrderByDate(String campsite, LocalDate from, LocalDate to) {
+		return bindRange(COLUMNS + RANGE + "order by r.date", campsite, from, to)
+				.map((row, metadata) -> toBooking(row))
+				.all();
+	}
+
+	//The booking table comes first in the union, so a booking the archiver moves during the query is read from it or
+	//from both tables, and the union keeps a single copy.
+	public Flux<Booking> findWithArchiveByDateRangeOrderByDate(String campsite, LocalDate from, LocalDate to) {
+		return bindRange(COLUMNS + RANGE + "union " + COLUMNS.replace("from booking r", "from booking_archive r") + RANGE + "order by date", campsite, from, to)
+				.map((row, metadata) -> toBooking(row))
+				.all();
+	}
+
+	public Flux<Booking> findByUuid(String uuid) {
+		return databaseClient.execute(COLUMNS + "where r.uuid = :uuid")
+				.bind("uuid", UuidBinaryConverter.toBytes(uuid))
+				.map((row, metadata) -> toBooking(row))
+				.all();
+	}
+
+	public Flux<Booking> findArchivedByUuid(String uuid) {
+		return databaseClient.execute(COLUMNS.replace("from booking r", "from booking_archive r") + "where r.uuid = :uuid")
+				.bind("uuid", UuidBinaryConverter.toBytes(uuid))
+				.map((row, metadata) -> toBooking(row))
+				.all();
+	}
+
+	//ids come straight from the sequence Hibernate allocates its pools from, so they never collide with its own.
+	public Mono<Void> insert(Booking booking) {
+		GenericExecuteSpec spec = databaseClient.execute("insert into booking (id, uuid, campsite, version, name, last_name, email, date, date_to) "
+				+ "values (next value for booking_seq, :uuid, :campsite, :version, :name, :lastName, :email, :date, :dateTo)")
+			.bind("uuid", UuidBinaryConverter.toBytes(booking.getUuid()))
+			.bind("campsite", booking.getCampsite())
+			.bind("version", booking.getVersion())
+			.bind("date", booking.getDate())
+			.bind("dateTo", booking.getDateTo());
+		spec = bind(spec, "name", booking.getName(), String.class);
+		spec = bind(spec, "lastName", booking.getLastName(), String.class);
+		spec = bind(spec, "email", booking.getEmail(), String.class);
+		return spec.fetch().rowsUpdated().then();
+	}
+
+	//same as BookingRepository.requireFree.
+	public Mono<Void> requireFree(String campsite, String uuid, LocalDate from, LocalDate to) {
+		return databaseClient.execute("merge into campsite_lock (campsite) key (campsite) values (:campsite)")
+				.bind("campsite", campsite)
+				.fetch()
+				.rowsUpdated()
+				.then(bindRange("select count(*) as overlapping from booking r " + RANGE + "and r.uuid <> :uuid", campsite, from, to)
+					.bind("uuid", UuidBinaryConverter.toBytes(uuid))
+					.map((row, metadata) -> row.get("overlapping", Long.class))
+					.one())
+				.flatMap(overlapping -> (overlapping > 0)
+						? Mono.<Void>error(new DataIntegrityViolationException("campsite " + campsite + " is taken between " + from + " and " + to))
+						: Mono.<Void>empty());
+	}
+
+	//same as BookingRepository.claimVersion.
+	public Mono<Integer> claimVersion(String uuid, long version) {
+		return databaseClient.execute("update booking r set r.version = r.version + 1 where r.uuid = :uuid and r.version = :version")
+				.bind("uuid", UuidBinaryConverter.toBytes(uuid))
+				.bind("version", version)
+				.fetch()
+				.rowsUpdated();
+	}
+
+	public Mono<Integer> changeDates(String uuid, LocalDate from, LocalDate to) {
+		return databaseClient.execute("update booking r set r.date = :from, r.date_to = :to where r.uuid = :uuid")
+				.bind("uuid", UuidBinaryConverter.toBytes(uuid))
+				.bind("from", from)
+				.bind("to", to)
+				.fetch()
+				.rowsUpdated();
+	}
+
+	public Mono<Integer> deleteByUuid(String uuid) {
+		return databaseClient.execute("delete from booking r where r.uuid = :uuid")
+				.bind("uuid", UuidBinaryConverter.toBytes(uuid))
+				.fetch()
+				.rowsUpdated();
+	}
+}
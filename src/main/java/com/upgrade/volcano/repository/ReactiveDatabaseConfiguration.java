@@ -0,0 +1,51 @@
+package com.upgrade.volcano.repository;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.data.r2dbc.connectionfactory.R2dbcTransactionManager;
+import org.springframework.data.r2dbc.core.DatabaseClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+import io.r2dbc.h2.H2ConnectionConfiguration;
+import io.r2dbc.h2.H2ConnectionFactory;
+import io.r2dbc.h2.H2ConnectionOption;
+import io.r2dbc.spi.ConnectionFactory;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * R2DBC access to the in-memory database JPA creates and still uses for everything off the request path
+ * (the schema, the availability index load and reconciliation).
+ */
+@Configuration
+@Profile("reactive")
+public class ReactiveDatabaseConfiguration {
+
+	@Bean
+	public ConnectionFactory connectionFactory(@Value("${volcano.r2dbc.database:volcano}") String database) {
+		return new H2ConnectionFactory(H2ConnectionConfiguration.builder()
+				.inMemory(database)
+				.property(H2ConnectionOption.DB_CLOSE_DELAY, "-1")
+				.build());
+	}
+
+	@Bean
+	public DatabaseClient databaseClient(ConnectionFactory connectionFactory) {
+		return DatabaseClient.create(connectionFactory);
+	}
+
+	//The transaction manager itself isn't a bean, a second one would leave @Transactional without a default.
+	@Bean
+	public TransactionalOperator reactiveTransactions(ConnectionFactory connectionFactory) {
+		return TransactionalOperator.create(new R2dbcTransactionManager(connectionFactory));
+	}
+
+	//The H2 driver runs every statement on the thread that subscribes, so they go to a few dedicated threads
+	//and the event loop is left to the clients.
+	@Bean(destroyMethod = "dispose")
+	public Scheduler databaseScheduler(@Value("${volcano.r2dbc.threads:10}") int threads) {
+		return Schedulers.newBoundedElastic(threads, Integer.MAX_VALUE, "booking-db");
+	}
+}
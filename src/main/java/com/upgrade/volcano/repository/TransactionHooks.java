@@ -0,0 +1,48 @@
+package com.upgrade.volcano.repository;
+
+import java.util.function.Consumer;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Runs in-memory side effects of a booking change only once the database agrees with them.
+ * Without a transaction (e.g. in unit tests) they run right away, as if it had committed.
+ */
+public final class TransactionHooks {
+
+	private TransactionHooks() {
+
+	}
+
+	public static void afterCommit(Runnable change) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			change.run();
+			return;
+		}
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCommit() {
+				change.run();
+			}
+		});
+	}
+
+	/**
+	 * Tells the given callback whether the current transaction committed.
+	 */
+	public static void afterCompletion(Consumer<Boolean> callback) {
+		if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+			callback.accept(true);
+			return;
+		}
+
+		TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+			@Override
+			public void afterCompletion(int status) {
+				callback.accept(status == STATUS_COMMITTED);
+			}
+		});
+	}
+}
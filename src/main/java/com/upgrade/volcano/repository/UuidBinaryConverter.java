@@ -0,0 +1,37 @@
+package com.upgrade.volcano.repository;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+/**
+ * Stores the textual booking uuid as 16 raw bytes instead of 36 characters.
+ */
+@Converter
+public class UuidBinaryConverter implements AttributeConverter<String, byte[]> {
+
+	public static byte[] toBytes(String uuid) {
+		UUID value = UUID.fromString(uuid);
+		return ByteBuffer.allocate(16)
+				.putLong(value.getMostSignificantBits())
+				.putLong(value.getLeastSignificantBits())
+				.array();
+	}
+
+	public static String fromBytes(byte[] bytes) {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		return new UUID(buffer.getLong(), buffer.getLong()).toString();
+	}
+
+	@Override
+	public byte[] convertToDatabaseColumn(String uuid) {
+		return (uuid == null) ? null : toBytes(uuid);
+	}
+
+	@Override
+	public String convertToEntityAttribute(byte[] bytes) {
+		return (bytes == null) ? null : fromBytes(bytes);
+	}
+}
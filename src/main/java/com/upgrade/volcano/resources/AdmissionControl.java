@@ -0,0 +1,181 @@
+package com.upgrade.volcano.resources;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.upgrade.volcano.availability.AvailabilityIndex;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Decides which booking attempts (POST /booking, and every booking of an import) get to the database, for the
+ * surge of requests when a new day opens.
+ *
+ * Every client has a token bucket: attempts past its burst and rate are answered 429 right away. An attempt then
+ * waits its turn for each of its days, one at a time and in FIFO order, so only one booking per day is in flight
+ * and the next one in line only goes ahead if that one didn't take the day. Days that are known to be booked are
+ * answered 409 without waiting. Days with a full line already, and attempts that waited too long, are answered
+ * 429: the day may well be free, the client has to try again later. Days are always taken in date order, so two
+ * attempts never wait on each other.
+ */
+@Component
+public class AdmissionControl {
+
+	private static class Bucket {
+		private double tokens;
+		private long refilledAt;
+
+		Bucket(double tokens, long now) {
+			this.tokens = tokens;
+			this.refilledAt = now;
+		}
+	}
+
+	/**
+	 * The days an attempt holds, given back when it's closed. It has to be closed once the transaction is over.
+	 */
+	public static class Ticket implements AutoCloseable {
+		private final List<Semaphore> held;
+
+		Ticket(List<Semaphore> held) {
+			this.held = held;
+		}
+
+		@Override
+		public void close() {
+			held.forEach(Semaphore::release);
+			held.clear();
+		}
+	}
+
+	private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+	//[campsite, day] to the line of attempts for it, fair so it's served in arrival order.
+	private final Map<List<Object>, Semaphore> lines = new ConcurrentHashMap<>();
+	private final AvailabilityIndex availabilityIndex;
+	private final Counter shortCircuited;
+	private final double burst;
+	private final double ratePerMilli;
+	private final int queueSize;
+	private final long waitMillis;
+
+	public AdmissionControl(AvailabilityIndex availabilityIndex, MeterRegistry meterRegistry,
+			@Value("${volcano.admission.burst:10}") int burst, @Value("${volcano.admission.rate:5}") double ratePerSecond,
+			@Value("${volcano.admission.queue-size:8}") int queueSize, @Value("${volcano.admission.wait:5000}") long waitMillis) {
+		this.availabilityIndex = availabilityIndex;
+		this.shortCircuited = meterRegistry.counter("volcano.admission.short-circuited");
+		this.burst = burst;
+		this.ratePerMilli = ratePerSecond / 1000.0;
+		this.queueSize = queueSize;
+		this.waitMillis = waitMillis;
+	}
+
+	/**
+	 * Takes a token of the client, or throws TooManyRequestsException telling when the next one is there.
+	 */
+	public void checkRate(String client) {
+		long now = System.currentTimeMillis();
+		Bucket bucket = buckets.computeIfAbsent(client, key -> new Bucket(burst, now));
+
+		synchronized (bucket) {
+			bucket.tokens = Math.min(burst, bucket.tokens + (now - bucket.refilledAt) * ratePerMilli);
+			bucket.refilledAt = now;
+
+			if (bucket.tokens < 1) {
+				long retryAfterMillis = (long) Math.ceil((1 - bucket.tokens) / ratePerMilli);
+				throw new TooManyRequestsException(Math.max(1, TimeUnit.MILLISECONDS.toSeconds(retryAfterMillis + 999)));
+			}
+
+			bucket.tokens--;
+		}
+	}
+
+	/**
+	 * Waits until the attempt is first in line for every day between from and to (both inclusive). Throws
+	 * ConflictException when one of them is booked, and TooManyRequestsException when its line is too long.
+	 */
+	public Ticket admit(String campsite, LocalDate from, LocalDate to) {
+		Ticket ticket = new Ticket(new ArrayList<>());
+		long deadline = System.currentTimeMillis() + waitMillis;
+
+		try {
+			for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+				//days outside of the index are left to the database.
+				if (!availabilityIndex.covers(day))
+					continue;
+
+				Semaphore line = lines.computeIfAbsent(Arrays.asList(campsite, day), key -> new Semaphore(1, true));
+
+				if (availabilityIndex.isConfirmed(campsite, day))
+					throw shortCircuit();
+
+				if (line.getQueueLength() >= queueSize) {
+					shortCircuited.increment();
+					throw busy();
+				}
+
+				if (!line.tryAcquire(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS))
+					throw busy();
+
+				ticket.held.add(line);
+
+				//whoever was ahead may have taken it meanwhile.
+				if (availabilityIndex.isConfirmed(campsite, day))
+					throw shortCircuit();
+			}
+
+			return ticket;
+		}
+		catch (InterruptedException e) {
+			ticket.close();
+			Thread.currentThread().interrupt();
+			throw new InternalServerErrorException();
+		}
+		catch (RuntimeException e) {
+			ticket.close();
+			throw e;
+		}
+	}
+
+	private ConflictException shortCircuit() {
+		shortCircuited.increment();
+		return new ConflictException();
+	}
+
+	//by then the attempts ahead in line are done.
+	private TooManyRequestsException busy() {
+		return new TooManyRequestsException(Math.max(1, TimeUnit.MILLISECONDS.toSeconds(waitMillis + 999)));
+	}
+
+	/**
+	 * How many attempts are waiting in line for the given day.
+	 */
+	public int waiting(String campsite, LocalDate day) {
+		Semaphore line = lines.get(Arrays.asList(campsite, day));
+		return (line == null) ? 0 : line.getQueueLength();
+	}
+
+	//Buckets that filled up again are the same as new ones, and lines of days that left the window are done.
+	@Scheduled(fixedDelayString = "${volcano.admission.cleanup-interval:60000}")
+	public void cleanup() {
+		long now = System.currentTimeMillis();
+		buckets.values().removeIf(bucket -> {
+			synchronized (bucket) {
+				return bucket.tokens + (now - bucket.refilledAt) * ratePerMilli >= burst;
+			}
+		});
+
+		LocalDate windowStart = availabilityIndex.windowStart();
+		lines.keySet().removeIf(key -> ((LocalDate) key.get(1)).isBefore(windowStart));
+	}
+}
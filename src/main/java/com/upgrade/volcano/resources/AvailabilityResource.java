@@ -0,0 +1,49 @@
+package com.upgrade.volcano.resources;
+
+import java.time.LocalDate;
+
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.upgrade.volcano.availability.AvailabilityIndex;
+import com.upgrade.volcano.repository.Booking;
+
+@RestController
+public class AvailabilityResource {
+
+	private AvailabilityIndex availabilityIndex;
+
+	public AvailabilityResource(AvailabilityIndex availabilityIndex) {
+		this.availabilityIndex = availabilityIndex;
+	}
+
+	private ResponseEntity<BookingResourceResponse> buildResponse(HttpStatus status, BookingResourceResponse body) {
+		return ResponseEntity.status(status).contentType(MediaType.APPLICATION_JSON).body(body);
+	}
+
+	//Served straight from memory, it never reaches the database.
+	@GetMapping("/availability")
+	public ResponseEntity<BookingResourceResponse> getAvailability(
+		@RequestParam(value="from", required=false)
+		@DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+		LocalDate from,
+		@RequestParam(value="to", required=false)
+		@DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+		LocalDate to,
+		@RequestParam(value="campsite", defaultValue=Booking.DEFAULT_CAMPSITE)
+		String campsite
+	) {
+		from = (from == null) ? LocalDate.now() : from;
+		to = (to == null) ? LocalDate.now().plusDays(AvailabilityIndex.MAX_DAYS_AHEAD) : to;
+
+		if (from.isAfter(to) || !availabilityIndex.covers(from) || !availabilityIndex.covers(to))
+			return buildResponse(HttpStatus.BAD_REQUEST, new BookingResourceResponse("availability can only be checked inside the booking window, up to 1 month in advance."));
+
+		return buildResponse(HttpStatus.OK, BookingResourceResponse.withPayload(availabilityIndex.availability(campsite, from, to)));
+	}
+}
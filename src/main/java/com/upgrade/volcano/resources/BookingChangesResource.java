@@ -0,0 +1,39 @@
+package com.upgrade.volcano.resources;
+
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.upgrade.volcano.availability.AvailabilityFeed;
+import com.upgrade.volcano.server.ChangeFeedWriter;
+
+//The events are written by ChangeFeedWriter, which gives each stream its own write deadline.
+@RestController
+@Profile("!reactive")
+public class BookingChangesResource {
+
+	private AvailabilityFeed availabilityFeed;
+	private ChangeFeedWriter changeFeedWriter;
+
+	public BookingChangesResource(AvailabilityFeed availabilityFeed, ChangeFeedWriter changeFeedWriter) {
+		this.availabilityFeed = availabilityFeed;
+		this.changeFeedWriter = changeFeedWriter;
+	}
+
+	@GetMapping(value = "/booking/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public void getChanges(
+		@RequestParam(value="campsite", required=false)
+		String campsite,
+		HttpServletRequest request,
+		HttpServletResponse response
+	) throws IOException {
+		changeFeedWriter.write(availabilityFeed.subscribe(campsite), request, response);
+	}
+}
@@ -0,0 +1,319 @@
+package com.upgrade.volcano.resources;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.upgrade.volcano.availability.ReservationEngine;
+import com.upgrade.volcano.availability.ReservationEngine.Reservation;
+import com.upgrade.volcano.journal.BookingJournal;
+import com.upgrade.volcano.journal.JournalRecord;
+import com.upgrade.volcano.repository.Booking;
+import com.upgrade.volcano.repository.BookingRepository;
+import com.upgrade.volcano.repository.BookingVersion;
+
+/**
+ * Creates many bookings in one request, for agencies sending whole groups. The body is a JSON array of bookings,
+ * or one booking per line (NDJSON), each one the same document POST /booking takes.
+ *
+ * Bookings are read and handled in batches, so a large import never sits in memory at once. Every booking of a
+ * batch is validated like POST /booking and claimed on the availability index, which also catches two bookings of
+ * the same import wanting the same days. The accepted ones are then inserted together in a single transaction.
+ * The answer is one NDJSON line per booking, in the order they came, with its position, its outcome (created,
+ * conflict, throttled, invalid or error) and either the new uuid or the reason. A booking that fails never fails the
+ * others. Only a booking refused for its days is a conflict; one that couldn't be written for any other reason (a
+ * lock held too long, the database or the journal failing) is an error, and can be sent again.
+ *
+ * Every booking is an attempt for admission control, like a POST /booking: it takes a token of the client and
+ * waits in line for its days before it's claimed. The ones refused are reported as throttled, with the seconds to
+ * wait before sending them again.
+ */
+@RestController
+@Profile("!reactive")
+public class BookingImportResource {
+
+	static final String NDJSON = "application/x-ndjson";
+
+	private static class Item {
+		private final int index;
+		private final Booking booking;
+		private String error;
+		private Reservation claim;
+		//set when admission control turned it away.
+		private Long retryAfter;
+		private CompletableFuture<Void> durable;
+		//why it couldn't be written, once its claim is given back.
+		private RuntimeException failure;
+
+		Item(int index, Booking booking) {
+			this.index = index;
+			this.booking = booking;
+		}
+	}
+
+	private BookingRepository bookingRepository;
+	private ReservationEngine reservationEngine;
+	private BookingVersion bookingVersion;
+	private Campsites campsites;
+	private AdmissionControl admissionControl;
+	//only there with volcano.journal.enabled, like in BookingResource.
+	private BookingJournal bookingJournal;
+	private ObjectMapper objectMapper;
+	private TransactionTemplate transactionTemplate;
+	private int batchSize;
+
+	public BookingImportResource(BookingRepository bookingRepository, ReservationEngine reservationEngine, BookingVersion bookingVersion,
+			Campsites campsites, AdmissionControl admissionControl, @Nullable BookingJournal bookingJournal, ObjectMapper objectMapper, PlatformTransactionManager transactionManager,
+			@Value("${volcano.import.batch-size:200}") int batchSize) {
+		this.bookingRepository = bookingRepository;
+		this.reservationEngine = reservationEngine;
+		this.bookingVersion = bookingVersion;
+		this.campsites = campsites;
+		this.admissionControl = admissionControl;
+		this.bookingJournal = bookingJournal;
+		this.objectMapper = objectMapper;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.batchSize = batchSize;
+	}
+
+	@PostMapping(value = "/booking/import", consumes = {"application/json", NDJSON}, produces = NDJSON)
+	public void importBookings(InputStream body, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType(NDJSON);
+
+		JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream());
+		//lines are separated by hand, not by the default space between documents.
+		generator.setRootValueSeparator(null);
+		//a top level array is walked element by element, and so is a sequence of documents.
+		MappingIterator<Booking> bookings = objectMapper.readerFor(Booking.class).readValues(body);
+		List<Item> batch = new ArrayList<>();
+		int index = 0;
+
+		while (true) {
+			try {
+				//broken json between two bookings shows up here, before nextValue.
+				if (!bookings.hasNextValue())
+					break;
+
+				batch.add(new Item(index, bookings.nextValue()));
+			}
+			catch (JsonParseException e) {
+				//the bookings read before it are still in the batch, and get their answer before this one.
+				batch.add(broken(index));
+				break;
+			}
+			catch (JsonMappingException e) {
+				Item item = new Item(index, null);
+				item.error = "the booking couldn't be read: " + e.getOriginalMessage();
+				batch.add(item);
+			}
+
+			index++;
+
+			if (batch.size() == batchSize) {
+				write(generator, process(batch, request.getRemoteAddr()));
+				batch = new ArrayList<>();
+			}
+		}
+
+		write(generator, process(batch, request.getRemoteAddr()));
+		generator.close();
+	}
+
+	//broken json, there's no telling where the next booking starts.
+	private static Item broken(int index) {
+		Item item = new Item(index, null);
+		item.error = "the booking isn't valid json, nothing after it was read.";
+		return item;
+	}
+
+	private static String errorOf(ResponseEntity<BookingResourceResponse> response) {
+		return (response == null) ? null : response.getBody().getError();
+	}
+
+	private List<Item> process(List<Item> batch, String client) {
+		List<Item> accepted = new ArrayList<>();
+
+		for (Item item : batch) {
+			if (item.error != null)
+				continue;
+
+			Booking booking = item.booking;
+
+			try {
+				//every booking counts against the client, whatever it turns out to be.
+				admissionControl.checkRate(client);
+			}
+			catch (TooManyRequestsException e) {
+				item.retryAfter = e.getRetryAfterSeconds();
+				continue;
+			}
+
+			if (booking.getDate() == null || booking.getDateTo() == null)
+				item.error = "both start and end dates are required to create a booking.";
+			else
+				item.error = errorOf(BookingResource.validateDates(booking.getDate(), booking.getDateTo()));
+
+			if (item.error == null)
+				item.error = errorOf(BookingResource.validateCampsite(booking, campsites));
+
+			if (item.error != null)
+				continue;
+
+			booking.setUuid(UUID.randomUUID().toString());
+			booking.setVersion(0L);
+
+			//the line is only held for the claim: once claimed, whoever comes next for the days is refused in memory
+			//without reaching the database, and the next item of the import may want the same days.
+			try (AdmissionControl.Ticket ticket = admissionControl.admit(booking.getCampsite(), booking.getDate(), booking.getDateTo())) {
+				//all in memory: days taken by a booking or by an earlier item of the import are refused right here.
+				item.claim = reservationEngine.claim(booking.getCampsite(), booking.getUuid(), booking.getDate(), booking.getDateTo());
+			}
+			catch (ConflictException e) {
+				continue;
+			}
+			catch (TooManyRequestsException e) {
+				item.retryAfter = e.getRetryAfterSeconds();
+				continue;
+			}
+
+			if (item.claim != null)
+				accepted.add(item);
+		}
+
+		if (bookingJournal != null)
+			appendToJournal(accepted);
+		else if (!insert(accepted))
+			//something in the batch hit the database constraints, each booking goes on its own to find which.
+			accepted.forEach(item -> insert(Collections.singletonList(item)));
+
+		return batch;
+	}
+
+	//one transaction for every accepted booking, the rows go out in JDBC batches.
+	private boolean insert(List<Item> items) {
+		if (items.isEmpty())
+			return true;
+
+		try {
+			transactionTemplate.execute(status -> {
+				Set<String> campsites = new TreeSet<>();
+				items.forEach(item -> campsites.add(item.booking.getCampsite()));
+				//campsites are locked in the same order by everybody, so two imports can't wait for each other.
+				campsites.forEach(bookingRepository::lockCampsite);
+
+				//every check goes before the first insert, a query in between would flush the inserts one by one. Items of
+				//the batch can't overlap each other, they all hold their claims on the availability index.
+				for (Item item : items)
+					bookingRepository.requireFree(item.booking.getCampsite(), item.booking.getUuid(), item.booking.getDate(), item.booking.getDateTo());
+
+				for (Item item : items)
+					bookingRepository.save(BookingResource.toRow(item.booking, item.booking.getUuid()));
+
+				bookingRepository.flush();
+				campsites.forEach(bookingVersion::bumpAfterCommit);
+				return null;
+			});
+		}
+		catch (RuntimeException e) {
+			if (items.size() == 1) {
+				items.get(0).claim.cancel();
+				items.get(0).claim = null;
+				items.get(0).failure = e;
+			}
+
+			return false;
+		}
+
+		items.forEach(item -> item.claim.confirm());
+		return true;
+	}
+
+	//every record is appended before waiting for any, so the whole batch shares a few forces of the journal.
+	private void appendToJournal(List<Item> items) {
+		for (Item item : items) {
+			try {
+				item.durable = bookingJournal.append(JournalRecord.created(item.booking));
+			}
+			catch (RuntimeException e) {
+				item.durable = new CompletableFuture<>();
+				item.durable.completeExceptionally(e);
+			}
+		}
+
+		for (Item item : items) {
+			try {
+				item.durable.join();
+				item.claim.confirm();
+			}
+			catch (RuntimeException e) {
+				item.claim.cancel();
+				item.claim = null;
+				item.failure = (e instanceof CompletionException && e.getCause() instanceof RuntimeException) ? (RuntimeException) e.getCause() : e;
+			}
+		}
+	}
+
+	private static void write(JsonGenerator generator, List<Item> batch) throws IOException {
+		for (Item item : batch) {
+			generator.writeStartObject();
+			generator.writeNumberField("index", item.index);
+
+			if (item.error != null) {
+				generator.writeStringField("status", "invalid");
+				generator.writeStringField("error", item.error);
+			}
+			else if (item.retryAfter != null) {
+				generator.writeStringField("status", "throttled");
+				generator.writeStringField("error", "too many booking attempts, send it again later.");
+				generator.writeNumberField("retryAfter", item.retryAfter);
+			}
+			else if (item.failure != null && !(item.failure instanceof DataIntegrityViolationException)) {
+				generator.writeStringField("status", "error");
+				generator.writeStringField("error", "the booking couldn't be saved, send it again later.");
+			}
+			else if (item.claim == null) {
+				generator.writeStringField("status", "conflict");
+				generator.writeStringField("error", "the campsite is occupied for the days you have selected.");
+			}
+			else {
+				generator.writeStringField("status", "created");
+				generator.writeStringField("uuid", item.booking.getUuid());
+				generator.writeStringField("from", item.booking.getDate().toString());
+				generator.writeStringField("to", item.booking.getDateTo().toString());
+			}
+
+			generator.writeEndObject();
+			generator.writeRaw('\n');
+		}
+
+		//each batch reaches the client as soon as it's done.
+		generator.flush();
+	}
+}
@@ -1,42 +1,112 @@
 package com.upgrade.volcano.resources;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
-import org.springframework.beans.factory.annotation.Autowired;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.PessimisticLockingFailureException;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.PlatformTransactionManager;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.DigestUtils;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
+import com.upgrade.volcano.availability.AvailabilityIndex;
+import com.upgrade.volcano.availability.ReservationEngine;
+import com.upgrade.volcano.availability.ReservationEngine.Reservation;
+import com.upgrade.volcano.journal.BookingJournal;
+import com.upgrade.volcano.journal.JournalRecord;
+import com.upgrade.volcano.repository.ArchivedBooking;
+import com.upgrade.volcano.repository.ArchivedBookingRepository;
 import com.upgrade.volcano.repository.BookingRepository;
 import com.upgrade.volcano.repository.Booking;
+import com.upgrade.volcano.repository.BookingDay;
+import com.upgrade.volcano.repository.BookingVersion;
+import com.upgrade.volcano.repository.TransactionHooks;
 
+//The blocking implementation of the booking endpoints, ReactiveBookingResource replaces it with the reactive profile.
 @RestController
+@Profile("!reactive")
 public class BookingResource {
 
+	//campsite names end up in urls and cache keys, so they are kept short and plain.
+	private static final Pattern CAMPSITE = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
 	private BookingRepository bookingRepository;
+	//past days, moved there by the archiver. Only read when a range starts before the availability window, or for
+	//a booking that isn't anywhere else.
+	private ArchivedBookingRepository archivedBookingRepository;
+	private AvailabilityIndex availabilityIndex;
+	private ReservationEngine reservationEngine;
+	private Campsites campsites;
+	private RenderedResponseCache renderedResponseCache;
+	private BookingVersion bookingVersion;
+	private IdempotencyCache idempotencyCache;
+	//only there with volcano.journal.enabled, changes are then written to the journal and reach the table later.
+	private BookingJournal bookingJournal;
+	private AdmissionControl admissionControl;
+	//POST runs its own transaction, it has to wait for its turn before starting it.
+	private TransactionTemplate transactionTemplate;
+	//how many times PATCH and DELETE read a booking again when it changed under them.
+	private int editAttempts;
 	
-	public BookingResource(BookingRepository bookingRepository) {
+	public BookingResource(BookingRepository bookingRepository, ArchivedBookingRepository archivedBookingRepository, AvailabilityIndex availabilityIndex, ReservationEngine reservationEngine,
+			Campsites campsites, RenderedResponseCache renderedResponseCache, BookingVersion bookingVersion, IdempotencyCache idempotencyCache,
+			@Nullable BookingJournal bookingJournal, AdmissionControl admissionControl, PlatformTransactionManager transactionManager,
+			@Value("${volcano.booking.edit-attempts:3}") int editAttempts) {
 		this.bookingRepository = bookingRepository;
+		this.archivedBookingRepository = archivedBookingRepository;
+		this.availabilityIndex = availabilityIndex;
+		this.reservationEngine = reservationEngine;
+		this.campsites = campsites;
+		this.renderedResponseCache = renderedResponseCache;
+		this.bookingVersion = bookingVersion;
+		this.idempotencyCache = idempotencyCache;
+		this.bookingJournal = bookingJournal;
+		this.admissionControl = admissionControl;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.editAttempts = editAttempts;
 	}
 	
-	private ResponseEntity<BookingResourceResponse> buildResponse(HttpStatus status, BookingResourceResponse body) {
+	static ResponseEntity<BookingResourceResponse> buildResponse(HttpStatus status, BookingResourceResponse body) {
 		return ResponseEntity.status(status).contentType(MediaType.APPLICATION_JSON).body(body);
 	}
 	
-	private ResponseEntity<BookingResourceResponse> validateDates(LocalDate from, LocalDate to) {
+	static ResponseEntity<BookingResourceResponse> validateDates(LocalDate from, LocalDate to) {
 		Long difference = ChronoUnit.DAYS.between(LocalDate.now(), to);
 		
 		if (difference < 1L || difference > 30L) {
@@ -52,63 +122,403 @@ public class BookingResource {
 		return null;
 	}
 	
+	//a booking without a campsite goes to the default one, like every booking did before there were more.
+	static ResponseEntity<BookingResourceResponse> validateCampsite(Booking body, Campsites campsites) {
+		if (body.getCampsite() == null)
+			body.setCampsite(Booking.DEFAULT_CAMPSITE);
+		
+		if (!CAMPSITE.matcher(body.getCampsite()).matches())
+			return buildResponse(HttpStatus.BAD_REQUEST, new BookingResourceResponse("the campsite name can only have letters, digits, '-' and '_', and up to 64 of them."));
+		
+		if (!campsites.contains(body.getCampsite()))
+			return buildResponse(HttpStatus.NOT_FOUND, new BookingResourceResponse("the campsite you were looking for doesn't exist."));
+		
+		return null;
+	}
+	
+	static String eTag(long version) {
+		return "\"" + version + "\"";
+	}
+	
+	//every day of a booking carries its version.
+	static long versionOf(List<Booking> days) {
+		return days.stream().mapToLong(Booking::getVersion).max().orElse(0L);
+	}
+	
+	//strong comparison with every tag of an If-Match header, "*" matches any booking that exists.
+	static boolean matches(String ifMatch, long version) {
+		for (String tag : ifMatch.split(",")) {
+			tag = tag.trim();
+			
+			if (tag.equals("*") || tag.equals(eTag(version)))
+				return true;
+		}
+		
+		return false;
+	}
+	
+	//uuids are stored as binary, so something that isn't a uuid can't be a booking and the lookup is skipped.
+	static boolean isUuid(String id) {
+		try {
+			UUID.fromString(id);
+			return true;
+		}
+		catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+	
+	//with the journal the table may not have caught up yet, so bookings are looked up in the journal instead.
+	//A booking found in neither may be over and archived already.
+	private List<Booking> findByUuid(String id) {
+		if (!isUuid(id))
+			return Collections.emptyList();
+		
+		List<Booking> days = new ArrayList<>();
+		
+		if (bookingJournal == null)
+			bookingRepository.findByUuid(id).forEach(row -> days.addAll(row.days()));
+		else {
+			JournalRecord current = bookingJournal.find(id);
+			
+			if (current != null)
+				days.addAll(current.days());
+		}
+		
+		if (days.isEmpty())
+			archivedBookingRepository.findByUuid(id).forEach(row -> days.addAll(row.toBooking().days()));
+		
+		return days;
+	}
+	
+	//A booking over before the availability window is archived, or about to be, and never changes again.
+	static boolean isOver(List<Booking> days, LocalDate windowStart) {
+		return days.stream().allMatch(day -> day.getDate().isBefore(windowStart));
+	}
+	
+	static ResponseEntity<BookingResourceResponse> overResponse() {
+		return buildResponse(HttpStatus.CONFLICT, new BookingResourceResponse("the booking is already over and archived, it can't be changed anymore."));
+	}
+	
+	//the single row of a new booking. Only the fields a client may choose are taken from the body.
+	static Booking toRow(Booking body, String uuid) {
+		Booking row = new Booking(body.getName(), body.getLastName(), body.getEmail(), body.getDate(), body.getDateTo());
+		row.setUuid(uuid);
+		row.setCampsite(body.getCampsite());
+		row.setVersion(body.getVersion());
+		return row;
+	}
+	
+	//Rows are whole bookings, responses list one entry per day. Only the days between from and to are kept.
+	static Iterator<BookingDay> splitByDay(Iterator<BookingDay> rows, LocalDate from, LocalDate to) {
+		return new Iterator<BookingDay>() {
+			private BookingDay row;
+			private LocalDate next;
+			
+			@Override
+			public boolean hasNext() {
+				while (next == null && rows.hasNext()) {
+					row = rows.next();
+					next = row.getDate().isBefore(from) ? from : row.getDate();
+					
+					if (next.isAfter(row.getDateTo()) || next.isAfter(to))
+						next = null;
+				}
+				
+				return next != null;
+			}
+			
+			@Override
+			public BookingDay next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				
+				BookingDay day = new Booking(null, null, null, next, row.getUuid());
+				next = next.plusDays(1);
+				
+				if (next.isAfter(row.getDateTo()) || next.isAfter(to))
+					next = null;
+				
+				return day;
+			}
+		};
+	}
+	
 	@GetMapping("/booking")
-	public ResponseEntity<BookingResourceResponse> getAllBookings(
+	public ResponseEntity<byte[]> getAllBookings(
 		@RequestParam(value="from", required=false)
 		@DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
 		LocalDate from,
 		@RequestParam(value="to", required=false) 
 		@DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
-		LocalDate to
+		LocalDate to,
+		@RequestParam(value="compact", defaultValue="false")
+		boolean compact,
+		@RequestParam(value="campsite", defaultValue=Booking.DEFAULT_CAMPSITE)
+		String campsite
 	) {
 		from = (from == null) ? LocalDate.now() : from;
 		to = (to == null) ? LocalDate.now().plusMonths(1) : to;
 		
-		return buildResponse(HttpStatus.OK, new BookingResourceResponse(bookingRepository.findByDateGreaterThanEqualAndDateLessThanEqual(from, to)));
+		LocalDate start = from;
+		LocalDate end = to;
+		
+		//ranges are collapsed in a single pass, that needs the days in order.
+		RenderedResponseCache.Rendered rendered = renderedResponseCache.get(campsite, Arrays.asList(campsite, start, end, compact),
+				() -> new BookingResourceResponse(findDays(campsite, start, end, compact), compact));
+		
+		//with a matching If-None-Match header Spring answers 304 Not Modified and drops the body.
+		return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_JSON).eTag(rendered.getETag()).body(rendered.getBody());
+	}
+	
+	//Same response as above, but rows go from a database cursor straight to the client, for ranges too long to hold in memory.
+	@GetMapping(value = "/booking", params = "stream=true")
+	@Transactional(readOnly = true)
+	public void streamAllBookings(
+		@RequestParam(value="from", required=false)
+		@DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+		LocalDate from,
+		@RequestParam(value="to", required=false) 
+		@DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+		LocalDate to,
+		@RequestParam(value="compact", defaultValue="false")
+		boolean compact,
+		@RequestParam(value="campsite", defaultValue=Booking.DEFAULT_CAMPSITE)
+		String campsite,
+		HttpServletResponse response
+	) throws IOException {
+		from = (from == null) ? LocalDate.now() : from;
+		to = (to == null) ? LocalDate.now().plusMonths(1) : to;
+		
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+		
+		LocalDate cutoff = availabilityIndex.windowStart();
+		
+		try (Stream<BookingDay> rows = bookingRepository.streamByDateRange(campsite, from, to)) {
+			Iterator<BookingDay> days = splitByDay(rows.iterator(), from, to);
+			
+			if (!from.isBefore(cutoff)) {
+				BookingResourceResponse.stream(days, compact, response.getOutputStream());
+				return;
+			}
+			
+			//the active table is opened first, see findDays.
+			try (Stream<BookingDay> archived = archivedBookingRepository.streamByDateRange(campsite, from, min(to, cutoff.minusDays(1)))) {
+				BookingResourceResponse.stream(mergeByDate(splitByDay(archived.iterator(), from, to), days), compact, response.getOutputStream());
+			}
+		}
+	}
+	
+	private static LocalDate min(LocalDate first, LocalDate second) {
+		return first.isBefore(second) ? first : second;
+	}
+	
+	//Days of the campsite between from and to, in the booking table or already archived. The booking table is read
+	//first: a booking the archiver moves in the meantime is then in both reads and kept once, never in neither.
+	private List<Booking> findDays(String campsite, LocalDate from, LocalDate to, boolean ordered) {
+		List<Booking> rows = bookingRepository.findOverlapping(campsite, from, to);
+		LocalDate cutoff = availabilityIndex.windowStart();
+		
+		if (from.isBefore(cutoff)) {
+			Set<String> active = new HashSet<>();
+			rows.forEach(row -> active.add(row.getUuid()));
+			rows = new ArrayList<>(rows);
+			
+			for (ArchivedBooking row : archivedBookingRepository.findOverlapping(campsite, from, min(to, cutoff.minusDays(1))))
+				if (!active.contains(row.getUuid()))
+					rows.add(row.toBooking());
+			
+			if (ordered)
+				rows.sort(Comparator.comparing(Booking::getDate));
+		}
+		
+		List<Booking> days = new ArrayList<>();
+		rows.forEach(row -> days.addAll(row.days(from, to)));
+		return days;
+	}
+	
+	//Merges two runs of days ordered by date, a date can only be booked once per campsite so a date in both is the same booking.
+	static Iterator<BookingDay> mergeByDate(Iterator<BookingDay> first, Iterator<BookingDay> second) {
+		return new Iterator<BookingDay>() {
+			private BookingDay nextFirst = first.hasNext() ? first.next() : null;
+			private BookingDay nextSecond = second.hasNext() ? second.next() : null;
+			
+			@Override
+			public boolean hasNext() {
+				return nextFirst != null || nextSecond != null;
+			}
+			
+			@Override
+			public BookingDay next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				
+				BookingDay day;
+				
+				if (nextSecond == null || (nextFirst != null && !nextFirst.getDate().isAfter(nextSecond.getDate()))) {
+					day = nextFirst;
+					nextFirst = first.hasNext() ? first.next() : null;
+				}
+				else {
+					day = nextSecond;
+					nextSecond = second.hasNext() ? second.next() : null;
+				}
+				
+				if (nextSecond != null && nextSecond.getDate().equals(day.getDate()))
+					nextSecond = second.hasNext() ? second.next() : null;
+				
+				return day;
+			}
+		};
 	}
 	
 	@GetMapping("/booking/{id}")
-	public ResponseEntity<BookingResourceResponse> getAllBookings(@PathVariable String id) {
-		List<Booking> reservations = bookingRepository.findByUuid(id);
-		return (reservations != null && reservations.size() > 0)
-				? buildResponse(HttpStatus.OK, new BookingResourceResponse(reservations))
-				: buildResponse(HttpStatus.NOT_FOUND, new BookingResourceResponse("the booking you were looking for doesn't exist"));
+	public ResponseEntity<BookingResourceResponse> getAllBookings(
+		@PathVariable String id,
+		@RequestParam(value="compact", defaultValue="false")
+		boolean compact
+	) {
+		List<Booking> reservations = findByUuid(id);
+		
+		if (reservations.size() == 0)
+			return buildResponse(HttpStatus.NOT_FOUND, new BookingResourceResponse("the booking you were looking for doesn't exist"));
+		
+		if (compact)
+			reservations.sort(Comparator.comparing(Booking::getDate));
+		
+		//the ETag is the booking version, to be sent back in If-Match by PATCH and DELETE.
+		return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_JSON).eTag(eTag(versionOf(reservations))).body(new BookingResourceResponse(reservations, compact));
 	}
 
 	
 	@PostMapping("/booking")
-	@Transactional
-	public ResponseEntity<BookingResourceResponse> createBooking(@RequestBody Booking body) {
+	public ResponseEntity<BookingResourceResponse> createBooking(
+		@RequestBody Booking body,
+		@RequestHeader(value="Idempotency-Key", required=false)
+		String idempotencyKey,
+		HttpServletRequest request
+	) {
+		//every attempt counts against the client, whatever it turns out to be.
+		admissionControl.checkRate(request.getRemoteAddr());
+		
 		ResponseEntity<BookingResourceResponse> response = validateDates(body.getDate(), body.getDateTo());
 		
+		if (response == null)
+			response = validateCampsite(body, campsites);
+		
 		if (response != null) //it contains some error response.
 			return response;
 		
-		//the validation has returned null, so our dates are good to go.
-		Long difference = ChronoUnit.DAYS.between(body.getDate(), body.getDateTo());
-
+		if (idempotencyKey == null)
+			return admitted(body, () -> create(body));
+		
+		IdempotencyCache.Execution execution = idempotencyCache.start(idempotencyKey, fingerprint(body));
+		
+		if (execution.isReused())
+			return buildResponse(HttpStatus.UNPROCESSABLE_ENTITY, new BookingResourceResponse("the Idempotency-Key was already used for a different booking."));
+		
+		//a retry gets the first response without touching the repository.
+		if (!execution.isFirst())
+			return execution.awaitFirst();
+		
+		try {
+			return admitted(body, () -> {
+				ResponseEntity<BookingResourceResponse> created;
+				
+				try {
+					created = create(body);
+				}
+				catch (ConflictException e) {
+					//the days are taken, that's the answer for this key.
+					execution.fail(e);
+					throw e;
+				}
+				
+				//duplicates only see the response once the booking is really there.
+				TransactionHooks.afterCompletion(committed -> {
+					if (committed)
+						execution.complete(created);
+					else
+						execution.forget(new ConflictException());
+				});
+				return created;
+			});
+		}
+		catch (RuntimeException e) {
+			//refused by admission control, or failed without an answer: a retry with the same key runs again.
+			execution.forget(e);
+			throw e;
+		}
+	}
+	
+	//What tells two requests with the same Idempotency-Key apart, once the body is validated.
+	static String fingerprint(Booking body) {
+		String fields = Arrays.asList(body.getCampsite(), body.getDate(), body.getDateTo(), body.getName(), body.getLastName(), body.getEmail()).toString();
+		return DigestUtils.md5DigestAsHex(fields.getBytes(StandardCharsets.UTF_8));
+	}
+	
+	//Attempts wait for their days before the transaction starts, so a queued request doesn't hold a database connection.
+	//The days are given back once the transaction is over, and the next one in line sees how it went.
+	private ResponseEntity<BookingResourceResponse> admitted(Booking body, Supplier<ResponseEntity<BookingResourceResponse>> create) {
+		try (AdmissionControl.Ticket ticket = admissionControl.admit(body.getCampsite(), body.getDate(), body.getDateTo())) {
+			return transactionTemplate.execute(status -> create.get());
+		}
+		catch (PessimisticLockingFailureException e) {
+			//the campsite stayed locked by other writers for too long, the days may still be free.
+			throw new ConflictException();
+		}
+	}
+	
+	private ResponseEntity<BookingResourceResponse> create(Booking body) {
+		//createBooking has validated the body, so our dates are good to go.
 		String uuid = UUID.randomUUID().toString();
 		body.setUuid(uuid);
+		//a new booking starts at version 0, whatever the client sent.
+		body.setVersion(0L);
+		
+		//losers of the race for these days get their 409 here, without reaching the database.
+		Reservation claim = reservationEngine.reserve(body.getCampsite(), uuid, body.getDate(), body.getDateTo());
+		
+		if (claim == null)
+			throw new ConflictException();
 		
 		try {
-			int day = 0;
-			
-			do {
-				bookingRepository.save(new Booking(body.getName(), body.getLastName(), body.getEmail(), body.getDate().plusDays(day), uuid));
-				day++;
+			if (bookingJournal != null)
+				//acknowledged once the journal record is on disk.
+				bookingJournal.append(JournalRecord.created(body)).join();
+			else {
+				bookingRepository.requireFree(body.getCampsite(), uuid, body.getDate(), body.getDateTo());
+				bookingRepository.save(toRow(body, uuid));
+				//flushing sends the insert right now, so a failure is reported here as a conflict and not at commit time.
+				bookingRepository.flush();
+				bookingVersion.bumpAfterCommit(body.getCampsite());
 			}
-			while(day <= difference);
 			
 			return buildResponse(HttpStatus.CREATED, new BookingResourceResponse(body));
 		}
-		catch(Exception e) {
+		catch (DataIntegrityViolationException e) {
+			//the database has another booking on these days.
+			claim.cancel();
 			throw new ConflictException();
 		}
+		catch (PessimisticLockingFailureException e) {
+			claim.cancel();
+			throw e;
+		}
+		catch (Exception e) {
+			claim.cancel();
+			throw new InternalServerErrorException();
+		}
 	}
 	
 	@PatchMapping("/booking/{id}")
-	@Transactional
-	public ResponseEntity<BookingResourceResponse> updateBooking(@RequestBody Booking body, @PathVariable String id) {
+	public ResponseEntity<BookingResourceResponse> updateBooking(
+		@RequestBody Booking body,
+		@PathVariable String id,
+		@RequestHeader(value="If-Match", required=false)
+		String ifMatch
+	) {
 		if (body.getDate() == null || body.getDateTo() == null)
 			return buildResponse(HttpStatus.BAD_REQUEST, new BookingResourceResponse("both start and end dates are required to update the booking date."));
 
@@ -118,46 +528,154 @@ public class BookingResource {
 			return response;
 		
 		//the validation has returned null, so our dates are good to go.
-		List<Booking> reservations = bookingRepository.findByUuid(id);
+		return withRetries(ifMatch, () -> update(body, id, ifMatch));
+	}
+	
+	/*
+	 * A change that got in between our read and our write is read again and the edit is retried, a few times.
+	 * With If-Match the client asked for the version it has seen, so it gets a 412 and decides by itself.
+	 * Every attempt is a transaction of its own, so a retry never carries what the failed one did.
+	 */
+	private ResponseEntity<BookingResourceResponse> withRetries(String ifMatch, Supplier<ResponseEntity<BookingResourceResponse>> edit) {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return transactionTemplate.execute(status -> edit.get());
+			}
+			catch (PreconditionFailedException e) {
+				if (ifMatch != null)
+					throw e;
+				
+				if (attempt >= editAttempts)
+					throw new ConflictException();
+			}
+			catch (PessimisticLockingFailureException e) {
+				//the booking or its campsite stayed locked by another change for too long, it's being changed right now.
+				if (ifMatch != null)
+					throw new PreconditionFailedException();
+				
+				throw new ConflictException();
+			}
+		}
+	}
+	
+	private ResponseEntity<BookingResourceResponse> update(Booking body, String id, String ifMatch) {
+		List<Booking> reservations = findByUuid(id);
 		
-		if (reservations != null && reservations.size() == 0)
+		if (reservations.size() == 0)
 			return buildResponse(HttpStatus.NOT_FOUND, new BookingResourceResponse("the booking you were trying to update doesn't exist.;"));
+		
+		if (isOver(reservations, availabilityIndex.windowStart()))
+			return overResponse();
+		
+		long version = versionOf(reservations);
+		
+		if (ifMatch != null && !matches(ifMatch, version))
+			throw new PreconditionFailedException();
+		
+		//the table version is taken before anything else, from here on this booking is ours until the commit.
+		if (bookingJournal == null && bookingRepository.claimVersion(id, version) == 0)
+			throw new PreconditionFailedException();
 
-		//For simplicity sake let's assume updates can only be within bookings that have the same length
-		long difference = ChronoUnit.DAYS.between(body.getDate(), body.getDateTo());
-		if (reservations != null && reservations.size() != difference + 1) //+1 because we count one day for the first
-			return buildResponse(HttpStatus.BAD_REQUEST, new BookingResourceResponse("the booking you were trying to update should have the same days as your new booking.;"));
+		//a booking keeps its campsite, only the dates move.
+		String campsite = reservations.get(0).getCampsite();
+		Reservation claim = reservationEngine.reserve(campsite, id, body.getDate(), body.getDateTo());
+		
+		if (claim == null)
+			throw new ConflictException();
 		
 		try {
-			int day = 0;
-			for(Booking reservation: reservations) {
-				bookingRepository.changeDates(body.getDate().plusDays(day), reservation.getId());
-				day++;
+			if (bookingJournal != null) {
+				JournalRecord current = bookingJournal.find(id);
+				CompletableFuture<Void> durable = (current == null)
+						? null
+						: bookingJournal.appendIfVersion(JournalRecord.updated(current, body.getDate(), body.getDateTo()), version);
+				
+				if (durable == null)
+					throw new PreconditionFailedException();
+				
+				durable.join();
 			}
+			else {
+				//the booking's own days don't count, so it can move onto some of them.
+				bookingRepository.requireFree(campsite, id, body.getDate(), body.getDateTo());
+				bookingRepository.changeDates(id, body.getDate(), body.getDateTo());
+				bookingVersion.bumpAfterCommit(campsite);
+			}
+			
+			//the new days are already claimed, only the old ones left behind have to be freed.
+			TransactionHooks.afterCommit(() -> reservations
+				.stream()
+				.map(Booking::getDate)
+				.filter(date -> date.isBefore(body.getDate()) || date.isAfter(body.getDateTo()))
+				.forEach(date -> availabilityIndex.release(campsite, id, date)));
 			
-			return buildResponse(HttpStatus.NO_CONTENT, null);
+			return ResponseEntity.status(HttpStatus.NO_CONTENT).contentType(MediaType.APPLICATION_JSON).eTag(eTag(version + 1)).body(null);
+		}
+		catch (DataIntegrityViolationException e) {
+			//the database has another booking on the new days.
+			claim.cancel();
+			throw new ConflictException();
+		}
+		catch (PreconditionFailedException | PessimisticLockingFailureException e) {
+			claim.cancel();
+			throw e;
 		}
 		catch (Exception e) {
+			claim.cancel();
 			throw new InternalServerErrorException();
 		}				
 	}
 	
 	@DeleteMapping("/booking/{id}")
-	@Transactional
-	public ResponseEntity<BookingResourceResponse> deleteBooking(@PathVariable String id) {
-		List<Booking> items = bookingRepository.findByUuid(id);
+	public ResponseEntity<BookingResourceResponse> deleteBooking(
+		@PathVariable String id,
+		@RequestHeader(value="If-Match", required=false)
+		String ifMatch
+	) {
+		return withRetries(ifMatch, () -> delete(id, ifMatch));
+	}
+	
+	private ResponseEntity<BookingResourceResponse> delete(String id, String ifMatch) {
+		List<Booking> items = findByUuid(id);
+		
+		if (items.size() == 0)
+			return buildResponse(HttpStatus.NOT_FOUND, new BookingResourceResponse("there's no booking with such UUID."));
+		
+		if (isOver(items, availabilityIndex.windowStart()))
+			return overResponse();
+		
+		long version = versionOf(items);
+		String campsite = items.get(0).getCampsite();
+		
+		if (ifMatch != null && !matches(ifMatch, version))
+			throw new PreconditionFailedException();
 		
 		try {
-			items.forEach(item -> bookingRepository.delete(item));
+			if (bookingJournal != null) {
+				CompletableFuture<Void> durable = bookingJournal.appendIfVersion(JournalRecord.deleted(id, campsite), version);
+				
+				if (durable == null)
+					throw new PreconditionFailedException();
+				
+				durable.join();
+			}
+			else {
+				if (bookingRepository.claimVersion(id, version) == 0)
+					throw new PreconditionFailedException();
+				
+				bookingRepository.deleteByUuid(id);
+				bookingVersion.bumpAfterCommit(campsite);
+			}
+			
+			TransactionHooks.afterCommit(() -> items.forEach(item -> availabilityIndex.release(item.getCampsite(), id, item.getDate())));
+		}
+		catch (PreconditionFailedException | PessimisticLockingFailureException e) {
+			throw e;
 		}
 		catch (Exception e) {
 			throw new InternalServerErrorException();
 		}
 		
-		if (items != null && items.size() == 0)
-			return buildResponse(HttpStatus.NOT_FOUND, new BookingResourceResponse("there's no booking with such UUID."));
-		
-		else return buildResponse(HttpStatus.NO_CONTENT, null);
-
+		return buildResponse(HttpStatus.NO_CONTENT, null);
 	}
 }
@@ -1,10 +1,17 @@
 package com.upgrade.volcano.resources;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.upgrade.volcano.repository.Booking;
+import com.upgrade.volcano.repository.BookingDay;
 
 public class BookingResourceResponse {
 	
@@ -45,6 +52,47 @@ public class BookingResourceResponse {
 
 	}
 	
+	/**
+	 * Walks days ordered by date and merges consecutive days of the same booking into one range,
+	 * holding only the range being built.
+	 */
+	private static class RangeCollapser implements Iterator<CustomResponse> {
+		private final Iterator<? extends BookingDay> days;
+		private BookingDay next;
+		
+		RangeCollapser(Iterator<? extends BookingDay> days) {
+			this.days = days;
+			this.next = days.hasNext() ? days.next() : null;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+		
+		@Override
+		public CustomResponse next() {
+			CustomResponse range = new CustomResponse(next.getUuid(), next.getDate(), next.getDateTo());
+			next = null;
+			
+			while (days.hasNext()) {
+				BookingDay day = days.next();
+				
+				if (!day.getUuid().equals(range.uuid) || day.getDate().isAfter(range.to.plusDays(1))) {
+					next = day;
+					break;
+				}
+				
+				if (day.getDateTo().isAfter(range.to))
+					range.to = day.getDateTo();
+			}
+			
+			return range;
+		}
+	}
+	
+	private static final JsonFactory jsonFactory = new JsonFactory();
+	
 	private String error;
 	private Object payload;
 	
@@ -66,6 +114,63 @@ public class BookingResourceResponse {
 						.map(book -> new CustomResponse(book.getUuid(), book.getDate(), book.getDateTo()))
 						.collect(Collectors.toList());
 	}
+	
+	//payload has to be ordered by date when compact, so every booking comes out as a single {uuid, from, to} range.
+	BookingResourceResponse(List<Booking> payload, boolean compact) {
+		if (!compact) {
+			this.payload = new BookingResourceResponse(payload).payload;
+			return;
+		}
+		
+		List<CustomResponse> ranges = new ArrayList<>();
+		new RangeCollapser(payload.iterator()).forEachRemaining(ranges::add);
+		this.payload = ranges;
+	}
+	
+	/**
+	 * Writes the same {error, payload} document as a list response, one day at a time,
+	 * so memory use doesn't depend on how many days there are.
+	 */
+	static void stream(Iterator<BookingDay> days, boolean compact, OutputStream output) throws IOException {
+		Iterator<CustomResponse> ranges = compact
+				? new RangeCollapser(days)
+				: new Iterator<CustomResponse>() {
+					@Override
+					public boolean hasNext() {
+						return days.hasNext();
+					}
+					
+					@Override
+					public CustomResponse next() {
+						BookingDay day = days.next();
+						return new CustomResponse(day.getUuid(), day.getDate(), day.getDateTo());
+					}
+				};
+		
+		try (JsonGenerator generator = jsonFactory.createGenerator(output)) {
+			generator.writeStartObject();
+			generator.writeNullField("error");
+			generator.writeArrayFieldStart("payload");
+			
+			while (ranges.hasNext()) {
+				CustomResponse range = ranges.next();
+				generator.writeStartObject();
+				generator.writeStringField("uuid", range.uuid);
+				generator.writeStringField("from", range.from.toString());
+				generator.writeStringField("to", range.to.toString());
+				generator.writeEndObject();
+			}
+			
+			generator.writeEndArray();
+			generator.writeEndObject();
+		}
+	}
+	
+	static BookingResourceResponse withPayload(Object payload) {
+		BookingResourceResponse response = new BookingResourceResponse();
+		response.payload = payload;
+		return response;
+	}
 
 	public String getError() {
 		return error;
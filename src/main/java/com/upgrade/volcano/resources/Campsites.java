@@ -0,0 +1,35 @@
+package com.upgrade.volcano.resources;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.upgrade.volcano.repository.Booking;
+
+/**
+ * The campsites that can be booked, from volcano.campsites. Writes naming any other campsite are refused, so a typo
+ * or a made up name never turns into a campsite of its own. The default one is always there, clients that don't
+ * name a campsite keep working whatever the list says.
+ */
+@Component
+public class Campsites {
+
+	private final Set<String> names;
+
+	public Campsites(@Value("${volcano.campsites:" + Booking.DEFAULT_CAMPSITE + "}") Collection<String> names) {
+		this.names = new HashSet<>(names);
+		this.names.add(Booking.DEFAULT_CAMPSITE);
+	}
+
+	public boolean contains(String campsite) {
+		return names.contains(campsite);
+	}
+
+	public Set<String> names() {
+		return Collections.unmodifiableSet(names);
+	}
+}
@@ -2,4 +2,9 @@ package com.upgrade.volcano.resources;
 
 public class ConflictException extends RuntimeException {
 	private static final long serialVersionUID = 1L;
+	
+	//Conflicts are an expected outcome under contention, so skip filling in the stack trace.
+	public ConflictException() {
+		super(null, null, false, false);
+	}
 }
\ No newline at end of file
@@ -5,10 +5,20 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
 @ControllerAdvice
 public class ConflictExceptionController {
+   private final Counter errors;
+
+   public ConflictExceptionController(MeterRegistry meterRegistry) {
+      this.errors = meterRegistry.counter("volcano.booking.errors", "type", "conflict");
+   }
+
    @ExceptionHandler(value = ConflictException.class)
    public ResponseEntity<BookingResourceResponse> exception(ConflictException exception) {
+      errors.increment();
       return new ResponseEntity<>(new BookingResourceResponse("the campsite is occupied for the days you have selected."), HttpStatus.CONFLICT);
    }
 }
\ No newline at end of file
@@ -0,0 +1,166 @@
+package com.upgrade.volcano.resources;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.upgrade.volcano.availability.HoldRegistry;
+import com.upgrade.volcano.availability.HoldRegistry.Hold;
+import com.upgrade.volcano.journal.BookingJournal;
+import com.upgrade.volcano.journal.JournalRecord;
+import com.upgrade.volcano.repository.Booking;
+import com.upgrade.volcano.repository.BookingRepository;
+import com.upgrade.volcano.repository.BookingVersion;
+import com.upgrade.volcano.repository.TransactionHooks;
+
+/**
+ * Holds: days put aside for a few minutes while the client fills in its details, then confirmed into a booking.
+ * Nothing reaches the database until the confirmation.
+ */
+@RestController
+@Profile("!reactive")
+public class HoldResource {
+
+	private HoldRegistry holdRegistry;
+	private BookingRepository bookingRepository;
+	private BookingVersion bookingVersion;
+	private Campsites campsites;
+	private AdmissionControl admissionControl;
+	//only there with volcano.journal.enabled, like in BookingResource.
+	private BookingJournal bookingJournal;
+
+	public HoldResource(HoldRegistry holdRegistry, BookingRepository bookingRepository, BookingVersion bookingVersion,
+			Campsites campsites, AdmissionControl admissionControl, @Nullable BookingJournal bookingJournal) {
+		this.holdRegistry = holdRegistry;
+		this.bookingRepository = bookingRepository;
+		this.bookingVersion = bookingVersion;
+		this.campsites = campsites;
+		this.admissionControl = admissionControl;
+		this.bookingJournal = bookingJournal;
+	}
+
+	private static ResponseEntity<BookingResourceResponse> notFound() {
+		return BookingResource.buildResponse(HttpStatus.NOT_FOUND, new BookingResourceResponse("the hold you were looking for doesn't exist or has expired."));
+	}
+
+	@PostMapping("/booking/holds")
+	public ResponseEntity<BookingResourceResponse> createHold(@RequestBody Booking body, HttpServletRequest request) {
+		//a hold takes days away from everybody else just like a booking, so it counts as an attempt.
+		admissionControl.checkRate(request.getRemoteAddr());
+
+		if (body.getDate() == null || body.getDateTo() == null)
+			return BookingResource.buildResponse(HttpStatus.BAD_REQUEST, new BookingResourceResponse("both start and end dates are required to hold days."));
+
+		ResponseEntity<BookingResourceResponse> response = BookingResource.validateDates(body.getDate(), body.getDateTo());
+
+		if (response == null)
+			response = BookingResource.validateCampsite(body, campsites);
+
+		if (response != null) //it contains some error response.
+			return response;
+
+		Hold hold;
+
+		try {
+			hold = holdRegistry.place(request.getRemoteAddr(), body.getCampsite(), body.getDate(), body.getDateTo());
+		}
+		catch (HoldRegistry.TooManyHoldsException e) {
+			return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).contentType(MediaType.APPLICATION_JSON)
+					.header(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, (e.getRetryAfterMillis() + 999) / 1000)))
+					.body(new BookingResourceResponse("you have too many holds already, confirm or release one of them first."));
+		}
+
+		if (hold == null)
+			throw new ConflictException();
+
+		return BookingResource.buildResponse(HttpStatus.CREATED, BookingResourceResponse.withPayload(hold));
+	}
+
+	@GetMapping("/booking/holds/{id}")
+	public ResponseEntity<BookingResourceResponse> getHold(@PathVariable String id) {
+		Hold hold = holdRegistry.find(id);
+		return (hold == null) ? notFound() : BookingResource.buildResponse(HttpStatus.OK, BookingResourceResponse.withPayload(hold));
+	}
+
+	@DeleteMapping("/booking/holds/{id}")
+	public ResponseEntity<BookingResourceResponse> deleteHold(@PathVariable String id) {
+		if (!holdRegistry.release(id))
+			return notFound();
+
+		return ResponseEntity.status(HttpStatus.NO_CONTENT).contentType(MediaType.APPLICATION_JSON).body(null);
+	}
+
+	/*
+	 * The booking takes the hold uuid, and with it the days the hold has claimed on the availability index: they go
+	 * from held to booked without ever being free in between. Only the details of the guest come from the body.
+	 *
+	 * Another booking on the days ends the hold with a 409. A lock held too long by other writers is a 409 too, but
+	 * like any other failure to write the booking it puts the hold back, so the client can confirm it again until
+	 * it expires.
+	 */
+	@PostMapping("/booking/holds/{id}/confirm")
+	@Transactional
+	public ResponseEntity<BookingResourceResponse> confirmHold(@PathVariable String id, @RequestBody Booking body) {
+		Hold hold = holdRegistry.take(id);
+
+		if (hold == null)
+			return notFound();
+
+		body.setUuid(id);
+		body.setCampsite(hold.getCampsite());
+		body.setDate(hold.getFrom());
+		body.setDateTo(hold.getTo());
+		body.setVersion(0L);
+
+		try {
+			if (bookingJournal != null)
+				//acknowledged once the journal record is on disk.
+				bookingJournal.append(JournalRecord.created(body)).join();
+			else {
+				//the hold's days are pending on the index, not in the table, so they don't stand in the way here.
+				bookingRepository.requireFree(body.getCampsite(), id, body.getDate(), body.getDateTo());
+				bookingRepository.save(BookingResource.toRow(body, id));
+				bookingRepository.flush();
+				bookingVersion.bumpAfterCommit(body.getCampsite());
+			}
+
+			//from here on the days follow the transaction, a failure above is handled below.
+			TransactionHooks.afterCompletion(committed -> {
+				if (committed)
+					hold.reservation().confirm();
+				else
+					hold.reservation().cancel();
+			});
+
+			return BookingResource.buildResponse(HttpStatus.CREATED, new BookingResourceResponse(body));
+		}
+		catch (DataIntegrityViolationException e) {
+			//the database has another booking on these days.
+			hold.reservation().cancel();
+			throw new ConflictException();
+		}
+		catch (PessimisticLockingFailureException e) {
+			//the campsite stayed locked by other writers for too long, like in POST /booking. The days are still held.
+			holdRegistry.putBack(hold);
+			throw new ConflictException();
+		}
+		catch (Exception e) {
+			holdRegistry.putBack(hold);
+			throw new InternalServerErrorException();
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package com.upgrade.volcano.resources;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.ResponseEntity;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers the response given to each Idempotency-Key for a while, so a retried request gets the same answer
+ * instead of creating a second booking. Duplicates that arrive while the first one is still running wait for it.
+ * A key is tied to a fingerprint of the request it was first used with, reusing it for another one is refused.
+ */
+@Component
+public class IdempotencyCache {
+
+	private static class Entry {
+		private final CompletableFuture<ResponseEntity<BookingResourceResponse>> response = new CompletableFuture<>();
+		private final String fingerprint;
+		private final long expiresAt;
+
+		Entry(String fingerprint, long expiresAt) {
+			this.fingerprint = fingerprint;
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isExpired(long now) {
+			return response.isDone() && now > expiresAt;
+		}
+	}
+
+	public class Execution {
+		private final String key;
+		private final Entry entry;
+		private final boolean first;
+		private final boolean reused;
+
+		Execution(String key, Entry entry, boolean first, boolean reused) {
+			this.key = key;
+			this.entry = entry;
+			this.first = first;
+			this.reused = reused;
+		}
+
+		/**
+		 * Only the first request with a given key does the actual work.
+		 */
+		public boolean isFirst() {
+			return first;
+		}
+
+		/**
+		 * The key was first used for a different request, whose answer this one must not get.
+		 */
+		public boolean isReused() {
+			return reused;
+		}
+
+		public ResponseEntity<BookingResourceResponse> awaitFirst() {
+			try {
+				return entry.response.get(waitMillis, TimeUnit.MILLISECONDS);
+			}
+			catch (ExecutionException e) {
+				throw (RuntimeException) e.getCause();
+			}
+			catch (TimeoutException e) {
+				//the first request is still running, the client can retry later with the same key.
+				throw new ConflictException();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InternalServerErrorException();
+			}
+		}
+
+		public void complete(ResponseEntity<BookingResourceResponse> response) {
+			entry.response.complete(response);
+		}
+
+		/**
+		 * A conflict is the final answer for this key. Anything else is forgotten, so a retry runs again.
+		 */
+		public void fail(RuntimeException exception) {
+			if (!(exception instanceof ConflictException))
+				entries.remove(key, entry);
+
+			entry.response.completeExceptionally(exception);
+		}
+
+		/**
+		 * The request ended without a final answer (refused before it ran, rolled back at commit...). Waiting
+		 * duplicates get the exception, and the key is forgotten so a retry runs again. Nothing happens once the
+		 * answer is settled.
+		 */
+		public void forget(RuntimeException exception) {
+			if (entry.response.isDone())
+				return;
+
+			entries.remove(key, entry);
+			entry.response.completeExceptionally(exception);
+		}
+	}
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	//Keys in arrival order, to drop the oldest ones when the cache is full.
+	private final Queue<String> arrivals = new ConcurrentLinkedQueue<>();
+	private final int maxEntries;
+	private final long ttlMillis;
+	private final long waitMillis;
+
+	public IdempotencyCache(
+		@Value("${volcano.idempotency.max-entries:10000}") int maxEntries,
+		@Value("${volcano.idempotency.ttl:86400000}") long ttlMillis,
+		@Value("${volcano.idempotency.wait:10000}") long waitMillis
+	) {
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+		this.waitMillis = waitMillis;
+	}
+
+	public Execution start(String key, String fingerprint) {
+		long now = System.currentTimeMillis();
+
+		while (true) {
+			Entry fresh = new Entry(fingerprint, now + ttlMillis);
+			Entry existing = entries.putIfAbsent(key, fresh);
+
+			if (existing == null) {
+				arrivals.add(key);
+				evictOverflow();
+				return new Execution(key, fresh, true, false);
+			}
+
+			if (!existing.isExpired(now))
+				return new Execution(key, existing, false, !existing.fingerprint.equals(fingerprint));
+
+			entries.remove(key, existing);
+		}
+	}
+
+	private void evictOverflow() {
+		//a whole pass over arrivals that drops nothing means every entry left is still running.
+		int kept = 0;
+
+		while (entries.size() > maxEntries && kept < arrivals.size()) {
+			String oldest = arrivals.poll();
+
+			if (oldest == null)
+				return;
+
+			//requests still running are never dropped, their duplicates are waiting on them.
+			boolean[] running = {false};
+			entries.computeIfPresent(oldest, (key, entry) -> {
+				if (entry.response.isDone())
+					return null;
+
+				running[0] = true;
+				return entry;
+			});
+
+			if (running[0]) {
+				arrivals.add(oldest);
+				kept++;
+			}
+			else
+				kept = 0;
+		}
+	}
+
+	@Scheduled(fixedDelayString = "${volcano.idempotency.cleanup-interval:60000}")
+	public void removeExpired() {
+		long now = System.currentTimeMillis();
+		entries.values().removeIf(entry -> entry.isExpired(now));
+		arrivals.removeIf(key -> !entries.containsKey(key));
+	}
+}
@@ -5,10 +5,20 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
 @ControllerAdvice
 public class InternalServerErrorExceptionController {
+   private final Counter errors;
+
+   public InternalServerErrorExceptionController(MeterRegistry meterRegistry) {
+      this.errors = meterRegistry.counter("volcano.booking.errors", "type", "internal-error");
+   }
+
    @ExceptionHandler(value = InternalServerErrorException.class)
    public ResponseEntity<BookingResourceResponse> exception(InternalServerErrorException exception) {
+      errors.increment();
       return new ResponseEntity<>(new BookingResourceResponse("an internal server error has occurred. Please, try again in a few minutes."), HttpStatus.INTERNAL_SERVER_ERROR);
    }
 }
\ No newline at end of file
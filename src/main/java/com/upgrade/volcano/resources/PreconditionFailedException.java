@@ -0,0 +1,11 @@
+package com.upgrade.volcano.resources;
+
+//The booking changed since the client (or this request) read it.
+public class PreconditionFailedException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+	
+	//Like conflicts, an expected outcome under contention, so skip filling in the stack trace.
+	public PreconditionFailedException() {
+		super(null, null, false, false);
+	}
+}
\ No newline at end of file
@@ -0,0 +1,24 @@
+package com.upgrade.volcano.resources;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+@ControllerAdvice
+public class PreconditionFailedExceptionController {
+   private final Counter errors;
+
+   public PreconditionFailedExceptionController(MeterRegistry meterRegistry) {
+      this.errors = meterRegistry.counter("volcano.booking.errors", "type", "precondition-failed");
+   }
+
+   @ExceptionHandler(value = PreconditionFailedException.class)
+   public ResponseEntity<BookingResourceResponse> exception(PreconditionFailedException exception) {
+      errors.increment();
+      return new ResponseEntity<>(new BookingResourceResponse("the booking has changed since you read it, get it again before retrying."), HttpStatus.PRECONDITION_FAILED);
+   }
+}
\ No newline at end of file
@@ -0,0 +1,34 @@
+package com.upgrade.volcano.resources;
+
+import java.util.List;
+
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.upgrade.volcano.availability.AvailabilityFeed;
+
+import reactor.core.publisher.Flux;
+
+//WebFlux writes the events itself, without blocking.
+@RestController
+@Profile("reactive")
+public class ReactiveBookingChangesResource {
+
+	private AvailabilityFeed availabilityFeed;
+
+	public ReactiveBookingChangesResource(AvailabilityFeed availabilityFeed) {
+		this.availabilityFeed = availabilityFeed;
+	}
+
+	@GetMapping(value = "/booking/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public Flux<ServerSentEvent<List<AvailabilityFeed.Change>>> getChanges(
+		@RequestParam(value="campsite", required=false)
+		String campsite
+	) {
+		return availabilityFeed.subscribe(campsite);
+	}
+}
@@ -0,0 +1,320 @@
+package com.upgrade.volcano.resources;
+
+import java.net.InetSocketAddress;
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.PessimisticLockingFailureException;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.transaction.reactive.TransactionalOperator;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PatchMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.upgrade.volcano.availability.AvailabilityIndex;
+import com.upgrade.volcano.availability.ReservationEngine;
+import com.upgrade.volcano.availability.ReservationEngine.Reservation;
+import com.upgrade.volcano.repository.Booking;
+import com.upgrade.volcano.repository.BookingVersion;
+import com.upgrade.volcano.repository.ReactiveBookingRepository;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Non-blocking implementation of the booking endpoints, enabled with the reactive profile. Requests are answered
+ * exactly like BookingResource does: same validations, same {error, payload} envelope and a 409 on conflicts.
+ * Idempotency-Key, ETags of the booking window and stream=true are only offered by the blocking implementation.
+ */
+@RestController
+@Profile("reactive")
+public class ReactiveBookingResource {
+
+	private ReactiveBookingRepository bookingRepository;
+	private AvailabilityIndex availabilityIndex;
+	private ReservationEngine reservationEngine;
+	private BookingVersion bookingVersion;
+	private Campsites campsites;
+	private AdmissionControl admissionControl;
+	private TransactionalOperator transactions;
+	private Scheduler databaseScheduler;
+	private int editAttempts;
+
+	public ReactiveBookingResource(ReactiveBookingRepository bookingRepository, AvailabilityIndex availabilityIndex, ReservationEngine reservationEngine,
+			BookingVersion bookingVersion, Campsites campsites, AdmissionControl admissionControl, TransactionalOperator transactions, Scheduler databaseScheduler,
+			@Value("${volcano.booking.edit-attempts:3}") int editAttempts) {
+		this.bookingRepository = bookingRepository;
+		this.availabilityIndex = availabilityIndex;
+		this.reservationEngine = reservationEngine;
+		this.bookingVersion = bookingVersion;
+		this.campsites = campsites;
+		this.admissionControl = admissionControl;
+		this.transactions = transactions;
+		this.databaseScheduler = databaseScheduler;
+		this.editAttempts = editAttempts;
+	}
+
+	//a booking that isn't in the booking table may be over and archived already.
+	private Mono<List<Booking>> findByUuid(String id) {
+		return BookingResource.isUuid(id)
+				? bookingRepository.findByUuid(id)
+					.switchIfEmpty(bookingRepository.findArchivedByUuid(id))
+					.flatMapIterable(Booking::days)
+					.collectList()
+					.subscribeOn(databaseScheduler)
+				: Mono.just(Collections.<Booking>emptyList());
+	}
+
+	//runs the statements in one transaction, on the database threads.
+	private <T> Mono<T> inTransaction(Mono<T> work) {
+		return transactions.transactional(work).subscribeOn(databaseScheduler);
+	}
+
+	@GetMapping("/booking")
+	public Mono<ResponseEntity<BookingResourceResponse>> getAllBookings(
+		@RequestParam(value="from", required=false)
+		@DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+		LocalDate from,
+		@RequestParam(value="to", required=false)
+		@DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+		LocalDate to,
+		@RequestParam(value="compact", defaultValue="false")
+		boolean compact,
+		@RequestParam(value="campsite", defaultValue=Booking.DEFAULT_CAMPSITE)
+		String campsite
+	) {
+		from = (from == null) ? LocalDate.now() : from;
+		to = (to == null) ? LocalDate.now().plusMonths(1) : to;
+
+		LocalDate start = from;
+		LocalDate end = to;
+
+		//bookings over before the availability window may have been archived already.
+		Flux<Booking> rows = from.isBefore(availabilityIndex.windowStart())
+				? bookingRepository.findWithArchiveByDateRangeOrderByDate(campsite, from, to)
+				: bookingRepository.findByDateRangeOrderByDate(campsite, from, to);
+
+		return rows
+				.flatMapIterable(row -> row.days(start, end))
+				.collectList()
+				.subscribeOn(databaseScheduler)
+				.map(days -> BookingResource.buildResponse(HttpStatus.OK, new BookingResourceResponse(days, compact)));
+	}
+
+	@GetMapping("/booking/{id}")
+	public Mono<ResponseEntity<BookingResourceResponse>> getAllBookings(
+		@PathVariable String id,
+		@RequestParam(value="compact", defaultValue="false")
+		boolean compact
+	) {
+		return findByUuid(id).map(reservations -> {
+			if (reservations.isEmpty())
+				return BookingResource.buildResponse(HttpStatus.NOT_FOUND, new BookingResourceResponse("the booking you were looking for doesn't exist"));
+
+			if (compact)
+				reservations.sort(Comparator.comparing(Booking::getDate));
+
+			return ResponseEntity.status(HttpStatus.OK).contentType(MediaType.APPLICATION_JSON)
+					.eTag(BookingResource.eTag(BookingResource.versionOf(reservations)))
+					.body(new BookingResourceResponse(reservations, compact));
+		});
+	}
+
+	@PostMapping("/booking")
+	public Mono<ResponseEntity<BookingResourceResponse>> createBooking(@RequestBody Booking body, ServerHttpRequest request) {
+		//every attempt counts against the client, whatever it turns out to be.
+		admissionControl.checkRate(clientOf(request));
+
+		ResponseEntity<BookingResourceResponse> response = BookingResource.validateDates(body.getDate(), body.getDateTo());
+
+		if (response == null)
+			response = BookingResource.validateCampsite(body, campsites);
+
+		if (response != null) //it contains some error response.
+			return Mono.just(response);
+
+		//same line per day as BookingResource. Waiting in it blocks, so it's done off the event loop and off the
+		//database threads, and the days are given back once the transaction is over.
+		return Mono.using(
+					() -> admissionControl.admit(body.getCampsite(), body.getDate(), body.getDateTo()),
+					ticket -> create(body),
+					AdmissionControl.Ticket::close)
+				.subscribeOn(Schedulers.boundedElastic());
+	}
+
+	//the same client key BookingResource takes from HttpServletRequest.getRemoteAddr.
+	private static String clientOf(ServerHttpRequest request) {
+		InetSocketAddress address = request.getRemoteAddress();
+		return (address == null || address.getAddress() == null) ? "unknown" : address.getAddress().getHostAddress();
+	}
+
+	private Mono<ResponseEntity<BookingResourceResponse>> create(Booking body) {
+		String uuid = UUID.randomUUID().toString();
+		body.setUuid(uuid);
+		body.setVersion(0L);
+
+		//losers of the race for these days get their 409 here, without reaching the database.
+		Reservation claim = reservationEngine.claim(body.getCampsite(), uuid, body.getDate(), body.getDateTo());
+
+		if (claim == null)
+			return Mono.error(new ConflictException());
+
+		return inTransaction(bookingRepository.requireFree(body.getCampsite(), uuid, body.getDate(), body.getDateTo())
+					.then(bookingRepository.insert(BookingResource.toRow(body, uuid))))
+				.doOnSuccess(committed -> {
+					claim.confirm();
+					bookingVersion.bumpAfterCommit(body.getCampsite());
+				})
+				//a client that goes away rolls the transaction back, its days are given back too.
+				.doOnCancel(claim::cancel)
+				.onErrorMap(e -> {
+					claim.cancel();
+					//same answers as BookingResource: only another booking on these days, or a campsite locked for too
+					//long, is a conflict. Anything else failed without an answer.
+					return (e instanceof DataIntegrityViolationException || e instanceof PessimisticLockingFailureException)
+							? new ConflictException()
+							: new InternalServerErrorException();
+				})
+				.thenReturn(BookingResource.buildResponse(HttpStatus.CREATED, new BookingResourceResponse(body)));
+	}
+
+	@PatchMapping("/booking/{id}")
+	public Mono<ResponseEntity<BookingResourceResponse>> updateBooking(
+		@RequestBody Booking body,
+		@PathVariable String id,
+		@RequestHeader(value="If-Match", required=false)
+		String ifMatch
+	) {
+		if (body.getDate() == null || body.getDateTo() == null)
+			return Mono.just(BookingResource.buildResponse(HttpStatus.BAD_REQUEST, new BookingResourceResponse("both start and end dates are required to update the booking date.")));
+
+		ResponseEntity<BookingResourceResponse> response = BookingResource.validateDates(body.getDate(), body.getDateTo());
+
+		if (response != null) //it contains some error response.
+			return Mono.just(response);
+
+		return withRetries(ifMatch, Mono.defer(() -> update(body, id, ifMatch)));
+	}
+
+	//same policy as BookingResource: a booking that changed under us is read again, unless the client sent If-Match.
+	private Mono<ResponseEntity<BookingResourceResponse>> withRetries(String ifMatch, Mono<ResponseEntity<BookingResourceResponse>> edit) {
+		//the booking or its campsite stayed locked by another change for too long, it's being changed right now.
+		Mono<ResponseEntity<BookingResourceResponse>> locked = edit.onErrorMap(PessimisticLockingFailureException.class,
+				e -> (ifMatch != null) ? new PreconditionFailedException() : new ConflictException());
+
+		if (ifMatch != null)
+			return locked;
+
+		return locked
+				.retry(editAttempts - 1, e -> e instanceof PreconditionFailedException)
+				.onErrorMap(PreconditionFailedException.class, e -> new ConflictException());
+	}
+
+	//fails the transaction when the booking isn't at the version it was read with anymore.
+	private Mono<Void> claimVersion(String id, long version) {
+		return bookingRepository.claimVersion(id, version)
+				.flatMap(claimed -> (claimed == 0) ? Mono.<Void>error(new PreconditionFailedException()) : Mono.<Void>empty());
+	}
+
+	private Mono<ResponseEntity<BookingResourceResponse>> update(Booking body, String id, String ifMatch) {
+		return findByUuid(id).flatMap(reservations -> {
+			if (reservations.isEmpty())
+				return Mono.just(BookingResource.buildResponse(HttpStatus.NOT_FOUND, new BookingResourceResponse("the booking you were trying to update doesn't exist.;")));
+
+			if (BookingResource.isOver(reservations, availabilityIndex.windowStart()))
+				return Mono.just(BookingResource.overResponse());
+
+			long version = BookingResource.versionOf(reservations);
+
+			if (ifMatch != null && !BookingResource.matches(ifMatch, version))
+				return Mono.error(new PreconditionFailedException());
+
+			//a booking keeps its campsite, only the dates move.
+			String campsite = reservations.get(0).getCampsite();
+			Reservation claim = reservationEngine.claim(campsite, id, body.getDate(), body.getDateTo());
+
+			if (claim == null)
+				return Mono.error(new ConflictException());
+
+			//same steps as BookingResource: take the version, check the new days, move the booking.
+			Mono<Void> work = claimVersion(id, version)
+					.then(bookingRepository.requireFree(campsite, id, body.getDate(), body.getDateTo()))
+					.then(bookingRepository.changeDates(id, body.getDate(), body.getDateTo()))
+					.then();
+
+			return inTransaction(work)
+					.doOnSuccess(committed -> {
+						//the new days are already claimed, only the old ones left behind have to be freed.
+						reservations
+							.stream()
+							.map(Booking::getDate)
+							.filter(date -> date.isBefore(body.getDate()) || date.isAfter(body.getDateTo()))
+							.forEach(date -> availabilityIndex.release(campsite, id, date));
+						claim.confirm();
+						bookingVersion.bumpAfterCommit(campsite);
+					})
+					.doOnCancel(claim::cancel)
+					.onErrorMap(e -> {
+						claim.cancel();
+
+						//same answers as BookingResource: another booking on the new days is a conflict, a stale version
+						//or a lock timeout goes to withRetries. Anything else failed without an answer.
+						if (e instanceof DataIntegrityViolationException)
+							return new ConflictException();
+
+						return (e instanceof PreconditionFailedException || e instanceof PessimisticLockingFailureException) ? e : new InternalServerErrorException();
+					})
+					.thenReturn(ResponseEntity.status(HttpStatus.NO_CONTENT).contentType(MediaType.APPLICATION_JSON).eTag(BookingResource.eTag(version + 1)).<BookingResourceResponse>body(null));
+		});
+	}
+
+	@DeleteMapping("/booking/{id}")
+	public Mono<ResponseEntity<BookingResourceResponse>> deleteBooking(
+		@PathVariable String id,
+		@RequestHeader(value="If-Match", required=false)
+		String ifMatch
+	) {
+		return withRetries(ifMatch, Mono.defer(() -> delete(id, ifMatch)));
+	}
+
+	private Mono<ResponseEntity<BookingResourceResponse>> delete(String id, String ifMatch) {
+		return findByUuid(id).flatMap(items -> {
+			if (items.isEmpty())
+				return Mono.just(BookingResource.buildResponse(HttpStatus.NOT_FOUND, new BookingResourceResponse("there's no booking with such UUID.")));
+
+			if (BookingResource.isOver(items, availabilityIndex.windowStart()))
+				return Mono.just(BookingResource.overResponse());
+
+			long version = BookingResource.versionOf(items);
+
+			if (ifMatch != null && !BookingResource.matches(ifMatch, version))
+				return Mono.error(new PreconditionFailedException());
+
+			return inTransaction(claimVersion(id, version).then(bookingRepository.deleteByUuid(id)))
+					.doOnSuccess(deleted -> {
+						items.forEach(item -> availabilityIndex.release(item.getCampsite(), id, item.getDate()));
+						bookingVersion.bumpAfterCommit(items.get(0).getCampsite());
+					})
+					.onErrorMap(e -> (e instanceof PreconditionFailedException || e instanceof PessimisticLockingFailureException) ? e : new InternalServerErrorException())
+					.thenReturn(BookingResource.buildResponse(HttpStatus.NO_CONTENT, null));
+		});
+	}
+}
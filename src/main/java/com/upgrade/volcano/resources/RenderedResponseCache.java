@@ -0,0 +1,86 @@
+package com.upgrade.volcano.resources;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.upgrade.volcano.repository.BookingVersion;
+
+/**
+ * Keeps the serialized bytes of the most requested responses, so the same window isn't queried and serialized
+ * again for every client. An entry is only served while no booking of its campsite has changed since it was rendered.
+ */
+@Component
+public class RenderedResponseCache {
+
+	public static class Rendered {
+		private final byte[] body;
+		private final String eTag;
+		private final long version;
+
+		Rendered(byte[] body, long version) {
+			this.body = body;
+			//Derived from the content, so it stays right across restarts when the version counter starts over.
+			this.eTag = "\"" + DigestUtils.md5DigestAsHex(body) + "\"";
+			this.version = version;
+		}
+
+		public byte[] getBody() {
+			return body;
+		}
+
+		public String getETag() {
+			return eTag;
+		}
+	}
+
+	private final Map<Object, Rendered> entries;
+	private ObjectMapper objectMapper;
+	private BookingVersion bookingVersion;
+
+	public RenderedResponseCache(ObjectMapper objectMapper, BookingVersion bookingVersion, @Value("${volcano.booking-cache.size:64}") int maxEntries) {
+		this.objectMapper = objectMapper;
+		this.bookingVersion = bookingVersion;
+		//Access ordered, so the least recently used window is the one dropped when it's full.
+		this.entries = new LinkedHashMap<Object, Rendered>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, Rendered> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	public Rendered get(String campsite, Object key, Supplier<BookingResourceResponse> render) {
+		//Read before rendering: if a booking commits meanwhile the entry is already stale and won't be served again.
+		long version = bookingVersion.current(campsite);
+		Rendered rendered;
+
+		synchronized (entries) {
+			rendered = entries.get(key);
+		}
+
+		if (rendered != null && rendered.version == version)
+			return rendered;
+
+		try {
+			rendered = new Rendered(objectMapper.writeValueAsBytes(render.get()), version);
+		}
+		catch (JsonProcessingException e) {
+			throw new InternalServerErrorException();
+		}
+
+		synchronized (entries) {
+			entries.put(key, rendered);
+		}
+
+		return rendered;
+	}
+}
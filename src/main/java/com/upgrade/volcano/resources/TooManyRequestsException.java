@@ -0,0 +1,18 @@
+package com.upgrade.volcano.resources;
+
+//The client went over its share of booking attempts.
+public class TooManyRequestsException extends RuntimeException {
+	private static final long serialVersionUID = 1L;
+	
+	private final long retryAfterSeconds;
+	
+	//Expected under a surge, so skip filling in the stack trace.
+	public TooManyRequestsException(long retryAfterSeconds) {
+		super(null, null, false, false);
+		this.retryAfterSeconds = retryAfterSeconds;
+	}
+	
+	public long getRetryAfterSeconds() {
+		return retryAfterSeconds;
+	}
+}
@@ -0,0 +1,27 @@
+package com.upgrade.volcano.resources;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+@ControllerAdvice
+public class TooManyRequestsExceptionController {
+   private final Counter errors;
+
+   public TooManyRequestsExceptionController(MeterRegistry meterRegistry) {
+      this.errors = meterRegistry.counter("volcano.booking.errors", "type", "too-many-requests");
+   }
+
+   @ExceptionHandler(value = TooManyRequestsException.class)
+   public ResponseEntity<BookingResourceResponse> exception(TooManyRequestsException exception) {
+      errors.increment();
+      return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, Long.toString(exception.getRetryAfterSeconds()))
+            .body(new BookingResourceResponse("too many booking attempts, wait a moment before trying again."));
+   }
+}
@@ -0,0 +1,51 @@
+package com.upgrade.volcano.server;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * The events of GET /booking/changes are written by ChangeFeedWriter on a small pool of their own with a bounded
+ * queue, away from the thread flushing the feed and from Spring MVC's async executor. A write that doesn't fit in
+ * the queue ends its stream, like a subscriber that falls behind, and the client reconnects.
+ *
+ * WebFlux writes without blocking, so the reactive profile needs none of this.
+ */
+@Configuration
+@Profile("!reactive")
+public class ChangeFeedConfiguration implements DisposableBean {
+
+	private final ThreadPoolTaskExecutor writers = new ThreadPoolTaskExecutor();
+
+	public ChangeFeedConfiguration(MeterRegistry meterRegistry, @Value("${volcano.changes.writers:8}") int threads,
+			@Value("${volcano.changes.write-queue:10000}") int queue) {
+		Counter dropped = meterRegistry.counter("volcano.changes.dropped");
+
+		writers.setCorePoolSize(threads);
+		writers.setMaxPoolSize(threads);
+		writers.setQueueCapacity(queue);
+		writers.setThreadNamePrefix("changes-");
+		writers.setRejectedExecutionHandler((write, executor) -> {
+			dropped.increment();
+			throw new RejectedExecutionException("every writer of the change feed is busy");
+		});
+		writers.initialize();
+	}
+
+	public AsyncTaskExecutor writers() {
+		return writers;
+	}
+
+	@Override
+	public void destroy() {
+		writers.shutdown();
+	}
+}
@@ -0,0 +1,248 @@
+package com.upgrade.volcano.server;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Queue;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.reactivestreams.Subscription;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.task.AsyncTaskExecutor;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+
+/**
+ * Writes the events of GET /booking/changes on the blocking implementation. The stream is written with the
+ * non-blocking output of the servlet API, so a client that stopped reading holds no thread: its next event waits
+ * in its stream, the ones after it in the feed, and a stream that couldn't write for volcano.changes.write-timeout
+ * ends. The deadline belongs to each stream, Tomcat's timeouts and every other request are left alone.
+ */
+@Component
+@Profile("!reactive")
+public class ChangeFeedWriter implements DisposableBean {
+
+	private final AsyncTaskExecutor writers;
+	private final ObjectMapper objectMapper;
+	private final long writeTimeout;
+	private final long streamTimeout;
+	//ends the streams that are still blocked once their deadline passes.
+	private final ThreadPoolTaskScheduler deadlines = new ThreadPoolTaskScheduler();
+
+	public ChangeFeedWriter(ChangeFeedConfiguration changeFeedConfiguration, ObjectMapper objectMapper,
+			@Value("${volcano.changes.write-timeout:2000}") long writeTimeout, @Value("${spring.mvc.async.request-timeout:1800000}") long streamTimeout) {
+		this.writers = changeFeedConfiguration.writers();
+		this.objectMapper = objectMapper;
+		this.writeTimeout = writeTimeout;
+		this.streamTimeout = streamTimeout;
+
+		deadlines.setPoolSize(1);
+		deadlines.setThreadNamePrefix("changes-deadline-");
+		deadlines.initialize();
+	}
+
+	/**
+	 * Sends the events to the client of the request until either of them ends.
+	 */
+	public void write(Flux<? extends ServerSentEvent<?>> events, HttpServletRequest request, HttpServletResponse response) throws IOException {
+		response.setStatus(HttpStatus.OK.value());
+		response.setContentType(MediaType.TEXT_EVENT_STREAM_VALUE);
+		response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+
+		AsyncContext context = request.startAsync(request, response);
+		context.setTimeout(streamTimeout);
+		Stream stream = new Stream(context, response.getOutputStream());
+		context.addListener(stream);
+		//the subscriber's own onError is taken, so the listener is apart.
+		response.getOutputStream().setWriteListener(new WriteListener() {
+			@Override
+			public void onWritePossible() {
+				stream.drain();
+			}
+
+			@Override
+			public void onError(Throwable error) {
+				stream.end();
+			}
+		});
+		events.subscribe(stream);
+	}
+
+	private byte[] format(ServerSentEvent<?> event) throws JsonProcessingException {
+		StringBuilder text = new StringBuilder();
+
+		if (event.id() != null)
+			text.append("id:").append(event.id()).append('\n');
+
+		if (event.event() != null)
+			text.append("event:").append(event.event()).append('\n');
+
+		if (event.comment() != null)
+			text.append(':').append(event.comment()).append('\n');
+
+		if (event.data() != null)
+			text.append("data:").append(objectMapper.writeValueAsString(event.data())).append('\n');
+
+		return text.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	private class Stream extends BaseSubscriber<ServerSentEvent<?>> implements AsyncListener {
+
+		private final AsyncContext context;
+		private final ServletOutputStream out;
+		//events taken from the feed and not written yet, one at most: the next is only requested once it's out.
+		private final Queue<byte[]> pending = new ArrayDeque<>();
+		//when the client stopped taking writes, 0 while it keeps up.
+		private long blockedSince;
+		private boolean ended;
+
+		Stream(AsyncContext context, ServletOutputStream out) {
+			this.context = context;
+			this.out = out;
+		}
+
+		@Override
+		protected void hookOnSubscribe(Subscription subscription) {
+			subscription.request(1);
+		}
+
+		@Override
+		protected void hookOnNext(ServerSentEvent<?> event) {
+			try {
+				byte[] bytes = format(event);
+
+				synchronized (this) {
+					pending.add(bytes);
+				}
+
+				//the feed is flushed from a single thread, the sockets are never touched from it.
+				writers.execute(this::drain);
+			}
+			catch (JsonProcessingException | RejectedExecutionException e) {
+				end();
+			}
+		}
+
+		@Override
+		protected void hookOnComplete() {
+			end();
+		}
+
+		//the feed drops a stream whose client is too many events behind.
+		@Override
+		protected void hookOnError(Throwable error) {
+			end();
+		}
+
+		private synchronized void drain() {
+			if (ended)
+				return;
+
+			try {
+				while (out.isReady()) {
+					byte[] bytes = pending.poll();
+
+					if (bytes == null) {
+						out.flush();
+
+						if (!out.isReady())
+							break;
+
+						blockedSince = 0;
+						return;
+					}
+
+					out.write(bytes);
+					request(1);
+				}
+			}
+			catch (IOException e) {
+				end();
+				return;
+			}
+
+			//the container calls onWritePossible once the client takes what's buffered, unless the deadline comes first.
+			if (blockedSince == 0) {
+				blockedSince = System.currentTimeMillis();
+				deadlines.schedule(this::checkDeadline, new Date(blockedSince + writeTimeout));
+			}
+		}
+
+		private synchronized void checkDeadline() {
+			if (ended || blockedSince == 0)
+				return;
+
+			long deadline = blockedSince + writeTimeout;
+
+			//it caught up and got stuck again since, the deadline moved.
+			if (System.currentTimeMillis() < deadline)
+				deadlines.schedule(this::checkDeadline, new Date(deadline));
+			else
+				end();
+		}
+
+		private synchronized void end() {
+			if (ended)
+				return;
+
+			ended = true;
+			pending.clear();
+			dispose();
+
+			try {
+				context.complete();
+			}
+			catch (IllegalStateException e) {
+				//the request was already over.
+			}
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			synchronized (this) {
+				ended = true;
+			}
+
+			dispose();
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			end();
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			end();
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+		}
+	}
+
+	@Override
+	public void destroy() {
+		deadlines.shutdown();
+	}
+}
@@ -0,0 +1,39 @@
+package com.upgrade.volcano.server;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * The training run of the Docker image build: once the application is ready it answers one GET /booking and
+ * exits, and the JVM writes down every class it loaded on the way. Those classes make up the class-data-sharing
+ * archive the image starts with, see the Dockerfile.
+ */
+@Component
+@ConditionalOnProperty(name = "volcano.cds.training", havingValue = "true")
+public class ClassDataSharingTraining {
+
+	private static final Logger logger = LoggerFactory.getLogger(ClassDataSharingTraining.class);
+
+	@EventListener(ApplicationReadyEvent.class)
+	public void exit(ApplicationReadyEvent event) throws IOException {
+		ConfigurableApplicationContext context = event.getApplicationContext();
+		String port = context.getEnvironment().getProperty("local.server.port");
+
+		//the classes of the request path are archived too, they're loaded before the first answer.
+		HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + "/booking").openConnection();
+		logger.info("training request answered {}", connection.getResponseCode());
+		connection.disconnect();
+
+		System.exit(SpringApplication.exit(context));
+	}
+}
@@ -0,0 +1,57 @@
+package com.upgrade.volcano.server;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.catalina.Lifecycle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Runs every request, and the blocking repository work it does, on its own virtual thread instead of
+ * Tomcat's worker pool. The project still compiles for Java 8, so the executor is looked up by reflection
+ * and the platform pool is kept when the JDK has no virtual threads.
+ *
+ * The database is protected by the connection pool: requests beyond spring.datasource.hikari.maximum-pool-size
+ * wait for a connection instead of reaching H2.
+ */
+@Configuration
+@ConditionalOnProperty(name = "volcano.virtual-threads.enabled", havingValue = "true")
+public class VirtualThreadsConfiguration {
+
+	private static final Logger logger = LoggerFactory.getLogger(VirtualThreadsConfiguration.class);
+
+	static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		}
+		catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	@Bean
+	public WebServerFactoryCustomizer<TomcatServletWebServerFactory> virtualThreadsCustomizer() {
+		return factory -> {
+			ExecutorService executor = newVirtualThreadPerTaskExecutor();
+
+			if (executor == null) {
+				logger.warn("volcano.virtual-threads.enabled is set but Java {} has no virtual threads, using the platform thread pool.", System.getProperty("java.version"));
+				return;
+			}
+
+			//Tomcat leaves executors it didn't create running, so it's shut down when the context stops.
+			factory.addProtocolHandlerCustomizers(protocol -> protocol.setExecutor(executor));
+			factory.addContextCustomizers(context -> context.addLifecycleListener(event -> {
+				if (Lifecycle.AFTER_STOP_EVENT.equals(event.getType()))
+					executor.shutdown();
+			}));
+			logger.info("Serving requests on virtual threads.");
+		};
+	}
+}
@@ -0,0 +1,177 @@
+package com.upgrade.volcano.snapshot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.upgrade.volcano.repository.ArchivedBookingRepository;
+import com.upgrade.volcano.repository.Booking;
+import com.upgrade.volcano.repository.BookingRepository;
+import com.upgrade.volcano.repository.BookingVersion;
+import com.upgrade.volcano.repository.UuidBinaryConverter;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Keeps a binary copy of the booking table and its archive on disk, so the in-memory database starts with the
+ * bookings it had. The snapshot is loaded before the first request, written every volcano.snapshot.interval
+ * milliseconds when something changed, and written one last time on a graceful shutdown.
+ */
+@Component
+@ConditionalOnProperty(name = "volcano.snapshot.enabled", havingValue = "true")
+//nothing asks for it, and the snapshot has to be loaded before the first request.
+@Lazy(false)
+public class BookingSnapshot {
+
+	private static final Logger logger = LoggerFactory.getLogger(BookingSnapshot.class);
+	private static final int INSERT_CHUNK = 5000;
+	//ids come from the same sequence Hibernate allocates its pools from, so they never collide with its own.
+	private static final String INSERT = "insert into booking (id, uuid, name, last_name, email, date, date_to, campsite, version) values (next value for booking_seq, ?, ?, ?, ?, ?, ?, ?, ?)";
+	private static final String INSERT_ARCHIVED = "insert into booking_archive (id, uuid, name, last_name, email, date, date_to, campsite, version) values (next value for booking_seq, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+	private final Path file;
+	private final BookingRepository bookingRepository;
+	private final ArchivedBookingRepository archivedBookingRepository;
+	private final BookingVersion bookingVersion;
+	private final JdbcTemplate jdbcTemplate;
+	private final TransactionTemplate transactionTemplate;
+	private final MeterRegistry meterRegistry;
+	//version of the table the file on disk was taken from.
+	private long savedVersion;
+
+	public BookingSnapshot(@Value("${volcano.snapshot.file:snapshot/bookings.snapshot}") String file,
+			@Value("${volcano.journal.enabled:false}") boolean journalEnabled, BookingRepository bookingRepository,
+			ArchivedBookingRepository archivedBookingRepository, BookingVersion bookingVersion, JdbcTemplate jdbcTemplate, PlatformTransactionManager transactionManager, MeterRegistry meterRegistry) {
+		//both would fill the booking table at startup, and the journal replaces whatever is there.
+		if (journalEnabled)
+			throw new IllegalStateException("volcano.snapshot.enabled and volcano.journal.enabled can't be on together, the journal already restores the bookings");
+
+		this.file = Paths.get(file);
+		this.bookingRepository = bookingRepository;
+		this.archivedBookingRepository = archivedBookingRepository;
+		this.bookingVersion = bookingVersion;
+		this.jdbcTemplate = jdbcTemplate;
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.meterRegistry = meterRegistry;
+	}
+
+	//Runs before the context is refreshed, so the availability index is loaded with the restored rows.
+	@PostConstruct
+	public synchronized void load() {
+		savedVersion = bookingVersion.current();
+
+		if (!Files.exists(file))
+			return;
+
+		long start = System.nanoTime();
+		List<Booking> chunk = new ArrayList<>(INSERT_CHUNK);
+		List<Booking> archivedChunk = new ArrayList<>(INSERT_CHUNK);
+
+		try {
+			//the row count is only checked at the end of the file, so every chunk goes in the same transaction.
+			long rows = transactionTemplate.execute(status -> {
+				try {
+					long read = SnapshotFormat.read(file,
+						row -> add(INSERT, chunk, row),
+						row -> add(INSERT_ARCHIVED, archivedChunk, row));
+					insert(INSERT, chunk);
+					insert(INSERT_ARCHIVED, archivedChunk);
+					return read;
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+
+			long elapsed = System.nanoTime() - start;
+			meterRegistry.timer("volcano.snapshot.load").record(elapsed, TimeUnit.NANOSECONDS);
+			logger.info("loaded {} booking row(s) from {} in {} ms", rows, file, TimeUnit.NANOSECONDS.toMillis(elapsed));
+		}
+		catch (UncheckedIOException e) {
+			//the transaction was rolled back, nothing of the file is in the table.
+			logger.error("couldn't load the booking snapshot, starting without bookings", e.getCause());
+		}
+	}
+
+	private void add(String insert, List<Booking> chunk, Booking row) {
+		chunk.add(row);
+
+		if (chunk.size() == INSERT_CHUNK)
+			insert(insert, chunk);
+	}
+
+	private void insert(String insert, List<Booking> chunk) {
+		if (chunk.isEmpty())
+			return;
+
+		jdbcTemplate.batchUpdate(insert, chunk, chunk.size(), (statement, row) -> {
+			statement.setBytes(1, UuidBinaryConverter.toBytes(row.getUuid()));
+			statement.setString(2, row.getName());
+			statement.setString(3, row.getLastName());
+			statement.setString(4, row.getEmail());
+			statement.setDate(5, Date.valueOf(row.getDate()));
+			statement.setDate(6, Date.valueOf(row.getDateTo()));
+			statement.setString(7, row.getCampsite());
+			statement.setLong(8, row.getVersion());
+		});
+		chunk.clear();
+	}
+
+	@Scheduled(fixedDelayString = "${volcano.snapshot.interval:300000}")
+	public synchronized void save() {
+		long version = bookingVersion.current();
+
+		if (version == savedVersion)
+			return;
+
+		long start = System.nanoTime();
+		long rows = transactionTemplate.execute(status -> {
+			try (Stream<Booking> table = bookingRepository.streamAllRows().map(BookingSnapshot::toBooking);
+					Stream<Booking> archive = archivedBookingRepository.streamAllRows().map(BookingSnapshot::toBooking)) {
+				return SnapshotFormat.write(file, table.iterator(), archive.iterator());
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		});
+
+		savedVersion = version;
+		meterRegistry.timer("volcano.snapshot.save").record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+		logger.debug("saved {} booking row(s) to {}", rows, file);
+	}
+
+	private static Booking toBooking(Object[] columns) {
+		Booking row = new Booking((String) columns[1], (String) columns[2], (String) columns[3], (LocalDate) columns[4], (String) columns[0]);
+		row.setDateTo((LocalDate) columns[5]);
+		row.setCampsite((String) columns[6]);
+		row.setVersion((Long) columns[7]);
+		return row;
+	}
+
+	@PreDestroy
+	public void close() {
+		save();
+	}
+}
@@ -0,0 +1,199 @@
+package com.upgrade.volcano.snapshot;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import com.upgrade.volcano.repository.Booking;
+
+/**
+ * Binary file holding every row of the booking table and of the archive.
+ *
+ * Layout: magic, format version and creation time; then every row as a 1 byte (2 for an archived one), uuid
+ * (16 bytes), date and date to (epoch days), booking version and name, last name, email and campsite (a presence
+ * flag plus modified UTF-8); then a 0 byte, the row count and the CRC32 of everything before it. Version 1 rows
+ * have no campsite, they belong to the default one, and rows before version 3 have no booking version. Before
+ * version 4 the table had a row per booked day, those are merged into one row per booking when read. Archived rows
+ * are there since version 5.
+ */
+public final class SnapshotFormat {
+
+	static final int MAGIC = 0x56534e50; //"VSNP"
+	public static final int FORMAT_VERSION = 5;
+	private static final int TRAILER_SIZE = 8;
+	private static final byte ROW = 1;
+	private static final byte ARCHIVED_ROW = 2;
+
+	private SnapshotFormat() {
+	}
+
+	/**
+	 * Writes the rows to a temporary file first, so the previous snapshot is only replaced by a complete one.
+	 */
+	public static long write(Path file, Iterator<Booking> rows, Iterator<Booking> archived) throws IOException {
+		Files.createDirectories(file.toAbsolutePath().getParent());
+		Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+		long count = 0;
+
+		try (FileOutputStream output = new FileOutputStream(temporary.toFile())) {
+			CRC32 crc = new CRC32();
+			DataOutputStream data = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(output, 1 << 16), crc));
+			data.writeInt(MAGIC);
+			data.writeInt(FORMAT_VERSION);
+			data.writeLong(System.currentTimeMillis());
+			count += writeRows(data, ROW, rows);
+			count += writeRows(data, ARCHIVED_ROW, archived);
+			data.writeByte(0);
+			data.writeLong(count);
+			data.flush();
+			//the checksum itself isn't part of the checksum.
+			new DataOutputStream(output).writeLong(crc.getValue());
+			output.getFD().sync();
+		}
+
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return count;
+	}
+
+	private static long writeRows(DataOutputStream data, byte marker, Iterator<Booking> rows) throws IOException {
+		long count = 0;
+
+		while (rows.hasNext()) {
+			Booking row = rows.next();
+			UUID uuid = UUID.fromString(row.getUuid());
+			data.writeByte(marker);
+			data.writeLong(uuid.getMostSignificantBits());
+			data.writeLong(uuid.getLeastSignificantBits());
+			data.writeInt((int) row.getDate().toEpochDay());
+			data.writeInt((int) row.getDateTo().toEpochDay());
+			data.writeLong(row.getVersion());
+			writeString(data, row.getName());
+			writeString(data, row.getLastName());
+			writeString(data, row.getEmail());
+			writeString(data, row.getCampsite());
+			count++;
+		}
+
+		return count;
+	}
+
+	/**
+	 * Checks the whole file before handing out the first row, a damaged snapshot gives no rows at all. Rows of the
+	 * booking table go to rows and rows of the archive to archived. Returns how many rows were handed out.
+	 */
+	public static long read(Path file, Consumer<Booking> rows, Consumer<Booking> archived) throws IOException {
+		verifyChecksum(file);
+
+		try (DataInputStream data = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			if (data.readInt() != MAGIC)
+				throw new IOException(file + " isn't a booking snapshot");
+
+			int version = data.readInt();
+
+			if (version < 1 || version > FORMAT_VERSION)
+				throw new IOException(file + " has format version " + version + ", only up to " + FORMAT_VERSION + " is supported");
+
+			data.readLong(); //creation time
+			long count = 0;
+			//days of the same booking aren't next to each other, they are all gathered before the first one goes out.
+			Map<String, Booking> bookings = (version < 4) ? new LinkedHashMap<>() : null;
+			byte marker;
+
+			while ((marker = data.readByte()) != 0) {
+				if (marker != ROW && (marker != ARCHIVED_ROW || version < 5))
+					throw new IOException(file + " has an unknown row marker " + marker);
+
+				String uuid = new UUID(data.readLong(), data.readLong()).toString();
+				LocalDate date = LocalDate.ofEpochDay(data.readInt());
+				LocalDate dateTo = LocalDate.ofEpochDay(data.readInt());
+				long bookingVersion = (version < 3) ? 0L : data.readLong();
+				Booking row = new Booking(readString(data), readString(data), readString(data), date, uuid);
+				row.setDateTo(dateTo);
+				row.setVersion(bookingVersion);
+				row.setCampsite((version < 2) ? Booking.DEFAULT_CAMPSITE : readString(data));
+				count++;
+
+				if (bookings != null)
+					bookings.merge(uuid, row, SnapshotFormat::span);
+				else if (marker == ARCHIVED_ROW)
+					archived.accept(row);
+				else
+					rows.accept(row);
+			}
+
+			if (data.readLong() != count)
+				throw new IOException(file + " doesn't have the number of rows it declares");
+
+			if (bookings == null)
+				return count;
+
+			bookings.values().forEach(rows);
+			return bookings.size();
+		}
+	}
+
+	//one booking covering the days of both rows.
+	private static Booking span(Booking first, Booking second) {
+		if (second.getDate().isBefore(first.getDate()))
+			first.setDate(second.getDate());
+
+		if (second.getDateTo().isAfter(first.getDateTo()))
+			first.setDateTo(second.getDateTo());
+
+		return first;
+	}
+
+	private static void verifyChecksum(Path file) throws IOException {
+		long size = Files.size(file);
+
+		if (size < TRAILER_SIZE)
+			throw new IOException(file + " is truncated");
+
+		CRC32 crc = new CRC32();
+
+		try (InputStream input = new CheckedInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16), crc)) {
+			byte[] buffer = new byte[1 << 16];
+
+			for (long remaining = size - TRAILER_SIZE; remaining > 0; ) {
+				int read = input.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+
+				if (read < 0)
+					throw new IOException(file + " is truncated");
+
+				remaining -= read;
+			}
+
+			long expected = crc.getValue();
+
+			if (new DataInputStream(input).readLong() != expected)
+				throw new IOException(file + " is damaged, its checksum doesn't match");
+		}
+	}
+
+	private static void writeString(DataOutputStream data, String value) throws IOException {
+		data.writeBoolean(value != null);
+
+		if (value != null)
+			data.writeUTF(value);
+	}
+
+	private static String readString(DataInputStream data) throws IOException {
+		return data.readBoolean() ? data.readUTF() : null;
+	}
+}
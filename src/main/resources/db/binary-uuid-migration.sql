@@ -0,0 +1,12 @@
+-- Moves an existing booking table from textual uuids (VARCHAR(255)) to BINARY(16) plus an index.
+-- Run it once, with the application stopped, against databases created before the change (H2 1.4 syntax).
+
+ALTER TABLE booking ADD COLUMN uuid_bin BINARY(16);
+
+-- H2 1.4 reads a character string cast to BINARY as hexadecimal.
+UPDATE booking SET uuid_bin = CAST(REPLACE(uuid, '-', '') AS BINARY(16));
+
+ALTER TABLE booking DROP COLUMN uuid;
+ALTER TABLE booking ALTER COLUMN uuid_bin RENAME TO uuid;
+
+CREATE INDEX booking_uuid_idx ON booking(uuid);
@@ -0,0 +1,16 @@
+-- Creates the archive the past booked days are moved to. Hibernate creates it on fresh databases.
+-- Run it once, with the application stopped, against databases created before the change (H2 1.4 syntax).
+
+CREATE TABLE booking_archive (
+	id BIGINT NOT NULL PRIMARY KEY,
+	uuid BINARY(16),
+	campsite VARCHAR(64) NOT NULL,
+	version BIGINT NOT NULL,
+	email VARCHAR(255),
+	name VARCHAR(255),
+	last_name VARCHAR(255),
+	date DATE,
+	date_to DATE,
+	CONSTRAINT booking_archive_campsite_date_uk UNIQUE (campsite, date)
+);
+CREATE INDEX booking_archive_uuid_idx ON booking_archive (uuid);
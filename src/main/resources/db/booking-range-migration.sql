@@ -0,0 +1,33 @@
+-- Moves the booking table and its archive from one row per booked day to one row per booking, from date to date_to.
+-- Run it once, with the application stopped, against databases created before the change (H2 1.4 syntax).
+-- Snapshots taken before the change are merged the same way when they are loaded, the journal needs nothing.
+
+-- The days of a booking share everything but the date, the new row keeps the id of its first day.
+CREATE TABLE booking_range AS
+	SELECT MIN(id) AS id, uuid, campsite, MAX(version) AS version, email, name, last_name, MIN(date) AS date, MAX(date) AS date_to
+	FROM booking
+	GROUP BY uuid, campsite, email, name, last_name;
+
+DELETE FROM booking;
+INSERT INTO booking (id, uuid, campsite, version, email, name, last_name, date, date_to)
+	SELECT id, uuid, campsite, version, email, name, last_name, date, date_to FROM booking_range;
+DROP TABLE booking_range;
+
+-- Ranges can't be kept apart by a unique constraint, writers check them under the campsite lock instead.
+ALTER TABLE booking DROP CONSTRAINT booking_campsite_date_uk;
+CREATE INDEX booking_campsite_date_idx ON booking (campsite, date);
+
+CREATE TABLE campsite_lock (
+	campsite VARCHAR(64) NOT NULL PRIMARY KEY
+);
+
+-- Archived days are merged the same way. Bookings never overlap, so (campsite, date) stays unique there.
+CREATE TABLE booking_archive_range AS
+	SELECT MIN(id) AS id, uuid, campsite, MAX(version) AS version, email, name, last_name, MIN(date) AS date, MAX(date) AS date_to
+	FROM booking_archive
+	GROUP BY uuid, campsite, email, name, last_name;
+
+DELETE FROM booking_archive;
+INSERT INTO booking_archive (id, uuid, campsite, version, email, name, last_name, date, date_to)
+	SELECT id, uuid, campsite, version, email, name, last_name, date, date_to FROM booking_archive_range;
+DROP TABLE booking_archive_range;
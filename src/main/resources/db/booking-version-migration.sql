@@ -0,0 +1,4 @@
+-- Adds the booking version used by If-Match on PATCH and DELETE. Existing bookings start at version 0.
+-- Run it once, with the application stopped, against databases created before the change (H2 1.4 syntax).
+
+ALTER TABLE booking ADD COLUMN version BIGINT DEFAULT 0 NOT NULL;
@@ -0,0 +1,13 @@
+-- Adds campsites to an existing booking table: every booking made so far goes to the default campsite, and a day
+-- becomes unique per campsite instead of globally.
+-- Run it once, with the application stopped, against databases created before the change (H2 1.4 syntax).
+
+ALTER TABLE booking ADD COLUMN campsite VARCHAR(64) DEFAULT 'main' NOT NULL;
+
+-- Hibernate generated the name of the old unique constraint on the date, look it up with
+--   SELECT constraint_name FROM information_schema.constraints WHERE table_name = 'BOOKING' AND constraint_type = 'UNIQUE';
+-- and put it in place of UK_BOOKING_DATE.
+ALTER TABLE booking DROP CONSTRAINT UK_BOOKING_DATE;
+
+ALTER TABLE booking ADD CONSTRAINT booking_campsite_date_uk UNIQUE (campsite, date);
+CREATE INDEX booking_date_idx ON booking(date);
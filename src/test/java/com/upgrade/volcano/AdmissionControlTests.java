@@ -0,0 +1,122 @@
+package com.upgrade.volcano;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+
+import java.time.LocalDate;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.upgrade.volcano.availability.AvailabilityIndex;
+import com.upgrade.volcano.repository.Booking;
+import com.upgrade.volcano.resources.AdmissionControl;
+import com.upgrade.volcano.resources.ConflictException;
+import com.upgrade.volcano.resources.TooManyRequestsException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class AdmissionControlTests {
+
+    private static final LocalDate DAY = LocalDate.now().plusDays(AvailabilityIndex.MAX_DAYS_AHEAD);
+
+    private AvailabilityIndex availabilityIndex;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private AdmissionControl admissionControl;
+
+    @Before
+    public void setup() {
+        availabilityIndex = new AvailabilityIndex();
+        meterRegistry = new SimpleMeterRegistry();
+        admissionControl = new AdmissionControl(availabilityIndex, meterRegistry, 2, 1, 1, 5000L);
+    }
+
+    private CompletableFuture<AdmissionControl.Ticket> admitLater() throws Exception {
+    	int waiting = admissionControl.waiting(Booking.DEFAULT_CAMPSITE, DAY);
+    	CompletableFuture<AdmissionControl.Ticket> admitted = CompletableFuture.supplyAsync(() -> admissionControl.admit(Booking.DEFAULT_CAMPSITE, DAY, DAY));
+    	long deadline = System.currentTimeMillis() + 5000;
+
+    	//until it's waiting in line.
+    	while (admissionControl.waiting(Booking.DEFAULT_CAMPSITE, DAY) == waiting && System.currentTimeMillis() < deadline)
+    		Thread.yield();
+
+    	assertThat(admissionControl.waiting(Booking.DEFAULT_CAMPSITE, DAY)).isEqualTo(waiting + 1);
+    	return admitted;
+    }
+
+    @Test
+    public void shouldRefuseAttemptsPastBurstOfClient() {
+    	admissionControl.checkRate("10.0.0.1");
+    	admissionControl.checkRate("10.0.0.1");
+
+    	// when
+    	TooManyRequestsException refused = catchThrowableOfType(() -> admissionControl.checkRate("10.0.0.1"), TooManyRequestsException.class);
+
+    	// then
+    	assertThat(refused.getRetryAfterSeconds()).isEqualTo(1L);
+    	//other clients have their own bucket.
+    	admissionControl.checkRate("10.0.0.2");
+    }
+
+    @Test
+    public void shouldShortCircuitDayAlreadyBooked() {
+    	availabilityIndex.book(Booking.DEFAULT_CAMPSITE, UUID.randomUUID().toString(), DAY);
+
+    	// when
+    	assertThatThrownBy(() -> admissionControl.admit(Booking.DEFAULT_CAMPSITE, DAY.minusDays(1), DAY))
+
+    	// then
+    		.isInstanceOf(ConflictException.class);
+    	assertThat(meterRegistry.get("volcano.admission.short-circuited").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldLetNextInLineGoWhenDayWasNotTaken() throws Exception {
+    	AdmissionControl.Ticket first = admissionControl.admit(Booking.DEFAULT_CAMPSITE, DAY, DAY);
+    	CompletableFuture<AdmissionControl.Ticket> second = admitLater();
+    	assertThat(second).isNotDone();
+
+    	// when
+    	first.close();
+
+    	// then
+    	second.get(5, TimeUnit.SECONDS).close();
+    }
+
+    @Test
+    public void shouldRefuseLineOnceDayIsTaken() throws Exception {
+    	AdmissionControl.Ticket first = admissionControl.admit(Booking.DEFAULT_CAMPSITE, DAY, DAY);
+    	CompletableFuture<AdmissionControl.Ticket> second = admitLater();
+
+    	//the line holds one attempt, a third one is told to come back later.
+    	assertThatThrownBy(() -> admissionControl.admit(Booking.DEFAULT_CAMPSITE, DAY, DAY)).isInstanceOf(TooManyRequestsException.class);
+
+    	// when
+    	availabilityIndex.book(Booking.DEFAULT_CAMPSITE, UUID.randomUUID().toString(), DAY);
+    	first.close();
+
+    	// then
+    	assertThatThrownBy(() -> second.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(ConflictException.class);
+    }
+
+    //waiting too long says nothing about the day, it's not a conflict.
+    @Test
+    public void shouldAskToRetryWhenWaitingTooLong() {
+    	admissionControl = new AdmissionControl(availabilityIndex, meterRegistry, 2, 1, 1, 10L);
+    	AdmissionControl.Ticket first = admissionControl.admit(Booking.DEFAULT_CAMPSITE, DAY, DAY);
+
+    	// when
+    	TooManyRequestsException refused = catchThrowableOfType(() -> admissionControl.admit(Booking.DEFAULT_CAMPSITE, DAY, DAY), TooManyRequestsException.class);
+
+    	// then
+    	assertThat(refused.getRetryAfterSeconds()).isEqualTo(1L);
+    	assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, DAY)).isFalse();
+    	first.close();
+    }
+}
@@ -0,0 +1,227 @@
+package com.upgrade.volcano;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.reactivestreams.Subscription;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.upgrade.volcano.availability.AvailabilityFeed;
+import com.upgrade.volcano.availability.AvailabilityIndex;
+import com.upgrade.volcano.availability.ReservationEngine;
+import com.upgrade.volcano.repository.Booking;
+import com.upgrade.volcano.server.ChangeFeedConfiguration;
+import com.upgrade.volcano.server.ChangeFeedWriter;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.BaseSubscriber;
+
+public class AvailabilityFeedTests {
+
+    private AvailabilityIndex availabilityIndex;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private AvailabilityFeed availabilityFeed;
+
+    @Before
+    public void setup() {
+        availabilityIndex = new AvailabilityIndex();
+        meterRegistry = new SimpleMeterRegistry();
+        availabilityFeed = new AvailabilityFeed(availabilityIndex, meterRegistry, 2, 60000L);
+    }
+
+    @Test
+    public void shouldSendLatestStateOfChangedDaysInOneEvent() {
+    	List<ServerSentEvent<List<AvailabilityFeed.Change>>> events = new ArrayList<>();
+    	availabilityFeed.subscribe(null).subscribe(events::add);
+    	String uuid = UUID.randomUUID().toString();
+
+    	availabilityIndex.book(Booking.DEFAULT_CAMPSITE, uuid, LocalDate.now().plusDays(1));
+    	availabilityIndex.book(Booking.DEFAULT_CAMPSITE, uuid, LocalDate.now().plusDays(2));
+    	availabilityIndex.release(Booking.DEFAULT_CAMPSITE, uuid, LocalDate.now().plusDays(1));
+
+    	// when
+    	availabilityFeed.flush();
+
+    	// then
+    	assertThat(events).hasSize(1);
+    	assertThat(events.get(0).data())
+    		.extracting(AvailabilityFeed.Change::getDate, AvailabilityFeed.Change::isAvailable)
+    		.containsExactly(
+    			tuple(LocalDate.now().plusDays(1), true),
+    			tuple(LocalDate.now().plusDays(2), false));
+    }
+
+    @Test
+    public void shouldNotReportClaimsThatNeverCommitted() {
+    	List<ServerSentEvent<List<AvailabilityFeed.Change>>> events = new ArrayList<>();
+    	availabilityFeed.subscribe(null).subscribe(events::add);
+
+    	// when
+    	new ReservationEngine(availabilityIndex).claim(Booking.DEFAULT_CAMPSITE, UUID.randomUUID().toString(), LocalDate.now().plusDays(1), LocalDate.now().plusDays(2)).cancel();
+    	availabilityFeed.flush();
+
+    	// then
+    	assertThat(events).isEmpty();
+    }
+
+    @Test
+    public void shouldOnlySendChangesOfRequestedCampsite() {
+    	List<ServerSentEvent<List<AvailabilityFeed.Change>>> events = new ArrayList<>();
+    	availabilityFeed.subscribe("north").subscribe(events::add);
+
+    	// when
+    	availabilityIndex.book(Booking.DEFAULT_CAMPSITE, UUID.randomUUID().toString(), LocalDate.now().plusDays(1));
+    	availabilityFeed.flush();
+    	availabilityIndex.book("north", UUID.randomUUID().toString(), LocalDate.now().plusDays(1));
+    	availabilityFeed.flush();
+
+    	// then
+    	assertThat(events).hasSize(1);
+    	assertThat(events.get(0).data()).extracting(AvailabilityFeed.Change::getCampsite).containsExactly("north");
+    }
+
+    @Test
+    public void shouldDropSubscriberThatFallsBehind() {
+    	List<Throwable> errors = new ArrayList<>();
+    	//a client that never reads.
+    	availabilityFeed.subscribe(null).subscribe(new BaseSubscriber<ServerSentEvent<List<AvailabilityFeed.Change>>>() {
+    		@Override
+    		protected void hookOnSubscribe(Subscription subscription) {
+    		}
+
+    		@Override
+    		protected void hookOnError(Throwable error) {
+    			errors.add(error);
+    		}
+    	});
+
+    	// when
+    	for (int day = 1; day <= 3; day++) {
+    		availabilityIndex.book(Booking.DEFAULT_CAMPSITE, UUID.randomUUID().toString(), LocalDate.now().plusDays(day));
+    		availabilityFeed.flush();
+    	}
+
+    	// then
+    	assertThat(errors).hasSize(1);
+    	assertThat(availabilityFeed.subscribers()).isEqualTo(0);
+    	assertThat(meterRegistry.get("volcano.changes.dropped").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldEndStreamsWhoseWritesQueueBehindStalledClient() {
+    	ChangeFeedConfiguration configuration = new ChangeFeedConfiguration(meterRegistry, 1, 1);
+    	CountDownLatch stalled = new CountDownLatch(1);
+
+    	try {
+    		//a write to a client that stopped reading holds the only writer, the next one waits in the queue.
+    		configuration.writers().execute(() -> {
+    			try {
+    				stalled.await();
+    			}
+    			catch (InterruptedException e) {
+    				Thread.currentThread().interrupt();
+    			}
+    		});
+    		configuration.writers().execute(() -> {});
+
+    		// when
+    		assertThatThrownBy(() -> configuration.writers().execute(() -> {})).isInstanceOf(TaskRejectedException.class);
+
+    		// then
+    		assertThat(meterRegistry.get("volcano.changes.dropped").counter().count()).isEqualTo(1);
+    	}
+    	finally {
+    		stalled.countDown();
+    		configuration.destroy();
+    	}
+    }
+
+    private ChangeFeedWriter changeFeedWriter(ChangeFeedConfiguration configuration, ServletOutputStream out, AsyncContext context, long writeTimeout) throws Exception {
+    	HttpServletRequest request = Mockito.mock(HttpServletRequest.class);
+    	HttpServletResponse response = Mockito.mock(HttpServletResponse.class);
+    	Mockito.when(request.startAsync(request, response)).thenReturn(context);
+    	Mockito.when(response.getOutputStream()).thenReturn(out);
+    	//dates go out as strings, like with the application's Jackson setup.
+    	ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+    	ChangeFeedWriter writer = new ChangeFeedWriter(configuration, objectMapper, writeTimeout, 60000L);
+    	writer.write(availabilityFeed.subscribe(null), request, response);
+    	return writer;
+    }
+
+    @Test
+    public void shouldWriteEventsToClientThatReads() throws Exception {
+    	ChangeFeedConfiguration configuration = new ChangeFeedConfiguration(meterRegistry, 1, 1);
+    	ServletOutputStream out = Mockito.mock(ServletOutputStream.class);
+    	AsyncContext context = Mockito.mock(AsyncContext.class);
+    	Mockito.when(out.isReady()).thenReturn(true);
+    	ChangeFeedWriter writer = changeFeedWriter(configuration, out, context, 60000L);
+
+    	try {
+    		// when
+    		availabilityIndex.book(Booking.DEFAULT_CAMPSITE, UUID.randomUUID().toString(), LocalDate.now().plusDays(1));
+    		availabilityFeed.flush();
+
+    		// then
+    		ArgumentCaptor<byte[]> written = ArgumentCaptor.forClass(byte[].class);
+    		Mockito.verify(out, Mockito.timeout(1000)).write(written.capture());
+    		assertThat(new String(written.getValue(), StandardCharsets.UTF_8))
+    			.startsWith("id:1\nevent:availability\ndata:[")
+    			.contains("\"date\":\"" + LocalDate.now().plusDays(1) + "\"")
+    			.endsWith("\n\n");
+    		Mockito.verify(context, Mockito.never()).complete();
+    	}
+    	finally {
+    		writer.destroy();
+    		configuration.destroy();
+    	}
+    }
+
+    //the deadline is the stream's own, nothing else on the server waits for it.
+    @Test
+    public void shouldEndStreamWhoseClientStopsReading() throws Exception {
+    	ChangeFeedConfiguration configuration = new ChangeFeedConfiguration(meterRegistry, 1, 1);
+    	ServletOutputStream out = Mockito.mock(ServletOutputStream.class);
+    	AsyncContext context = Mockito.mock(AsyncContext.class);
+    	//nothing the client is sent gets through.
+    	Mockito.when(out.isReady()).thenReturn(false);
+    	ChangeFeedWriter writer = changeFeedWriter(configuration, out, context, 50L);
+
+    	try {
+    		// when
+    		availabilityIndex.book(Booking.DEFAULT_CAMPSITE, UUID.randomUUID().toString(), LocalDate.now().plusDays(1));
+    		availabilityFeed.flush();
+
+    		// then
+    		Mockito.verify(context, Mockito.timeout(1000)).complete();
+    		Mockito.verify(out, Mockito.never()).write(Mockito.any(byte[].class));
+    		assertThat(availabilityFeed.subscribers()).isEqualTo(0);
+    	}
+    	finally {
+    		writer.destroy();
+    		configuration.destroy();
+    	}
+    }
+}
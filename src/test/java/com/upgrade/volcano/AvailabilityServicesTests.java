@@ -0,0 +1,117 @@
+package com.upgrade.volcano;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.jayway.jsonpath.JsonPath;
+import com.upgrade.volcano.availability.AvailabilityIndex;
+import com.upgrade.volcano.repository.Booking;
+import com.upgrade.volcano.resources.AvailabilityResource;
+
+@RunWith(MockitoJUnitRunner.class)
+public class AvailabilityServicesTests {
+
+    private MockMvc mvc;
+
+    private AvailabilityIndex availabilityIndex;
+
+    @Before
+    public void setup() {
+        availabilityIndex = new AvailabilityIndex();
+        mvc = MockMvcBuilders
+        		.standaloneSetup(new AvailabilityResource(availabilityIndex))
+        		.build();
+    }
+
+    @Test
+    public void shouldReturnWholeWindowByDefault() throws Exception {
+    	String uuid = UUID.randomUUID().toString();
+    	availabilityIndex.book(Booking.DEFAULT_CAMPSITE, uuid, LocalDate.now().plusDays(2));
+
+        // when
+        MockHttpServletResponse response = mvc.perform(get("/availability")).andReturn().getResponse();
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+
+        int length = JsonPath.parse(response.getContentAsString()).read("$.payload.length()");
+        assertThat(length).isEqualTo(31);
+
+        boolean available = JsonPath.parse(response.getContentAsString()).read("$.payload[2].available");
+        assertThat(available).isFalse();
+    }
+
+    @Test
+    public void shouldRejectRangeOutsideWindow() throws Exception {
+
+        // when
+        MockHttpServletResponse response =
+            mvc.perform(get("/availability").param("to", LocalDate.now().plusMonths(2).toString()))
+            .andReturn()
+            .getResponse();
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
+    }
+
+    @Test
+    public void shouldRepairDriftAgainstBookingTable() {
+    	String uuid = UUID.randomUUID().toString();
+    	availabilityIndex.book(Booking.DEFAULT_CAMPSITE, UUID.randomUUID().toString(), LocalDate.now().plusDays(4));
+
+    	List<Booking> rows = new ArrayList<>();
+    	rows.add(new Booking("Tomas", "Juarez", "tomasjuarez@gmail.com", LocalDate.now().plusDays(1), uuid));
+
+    	// when
+    	int drift = availabilityIndex.reconcile(rows, availabilityIndex.versions());
+
+    	// then
+    	assertThat(drift).isEqualTo(2);
+    	assertThat(availabilityIndex.ownerOf(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isEqualTo(uuid);
+    	assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(4))).isFalse();
+    	assertThat(availabilityIndex.reconcile(rows, availabilityIndex.versions())).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldNotRepairWhenIndexChangedMeanwhile() {
+    	Map<String, Long> versions = availabilityIndex.versions();
+    	availabilityIndex.book(Booking.DEFAULT_CAMPSITE, UUID.randomUUID().toString(), LocalDate.now().plusDays(4));
+
+    	// when
+    	int drift = availabilityIndex.reconcile(Collections.emptyList(), versions);
+
+    	// then
+    	assertThat(drift).isEqualTo(1);
+    	assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(4))).isTrue();
+    }
+
+    @Test
+    public void shouldNotAddCampsitesWithoutDaysWhenReconciling() {
+    	Map<String, Long> versions = new HashMap<>();
+    	versions.put("north", 0L);
+
+    	// when
+    	int drift = availabilityIndex.reconcile(Collections.emptyList(), versions);
+
+    	// then
+    	assertThat(drift).isEqualTo(0);
+    	assertThat(availabilityIndex.versions()).doesNotContainKey("north");
+    }
+}
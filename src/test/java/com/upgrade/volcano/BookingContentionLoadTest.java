@@ -0,0 +1,240 @@
+package com.upgrade.volcano;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.patch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.RequestBuilder;
+
+import com.jayway.jsonpath.JsonPath;
+import com.upgrade.volcano.availability.AvailabilityIndex;
+import com.upgrade.volcano.repository.Booking;
+import com.upgrade.volcano.repository.BookingRepository;
+
+/**
+ * Load test of concurrent clients fighting for the same days, against the whole application and its H2 database.
+ * It's excluded from the regular build, run it with:
+ *
+ * mvn test -Dtest=BookingContentionLoadTest -Dloadtest.clients=64 -Dloadtest.operations=200
+ *
+ * Other knobs: loadtest.post and loadtest.patch (percent of operations, the rest are deletes) and
+ * loadtest.hot-days (how many days everybody fights for).
+ */
+@RunWith(SpringRunner.class)
+//every client comes from the same address, so the per-client limits are lifted.
+@SpringBootTest(properties = {"spring.devtools.restart.enabled=false", "volcano.admission.burst=1000000", "volcano.admission.rate=1000000"})
+@AutoConfigureMockMvc
+public class BookingContentionLoadTest {
+
+	private static final int CLIENTS = Integer.getInteger("loadtest.clients", 64);
+	private static final int OPERATIONS = Integer.getInteger("loadtest.operations", 200);
+	private static final int POST_PERCENT = Integer.getInteger("loadtest.post", 50);
+	private static final int PATCH_PERCENT = Integer.getInteger("loadtest.patch", 30);
+	private static final int HOT_DAYS = Integer.getInteger("loadtest.hot-days", 6);
+
+	@Autowired
+	private MockMvc mvc;
+
+	@Autowired
+	private BookingRepository bookingRepository;
+
+	@Autowired
+	private AvailabilityIndex availabilityIndex;
+
+	/**
+	 * Outcome counters and latencies of one kind of request.
+	 */
+	private static class Stats {
+		private final String name;
+		private final ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+		private final LongAdder succeeded = new LongAdder();
+		private final LongAdder conflicts = new LongAdder();
+		private final LongAdder failed = new LongAdder();
+
+		Stats(String name) {
+			this.name = name;
+		}
+
+		void record(long nanos, int status) {
+			latencies.add(nanos);
+
+			if (status == HttpStatus.CONFLICT.value())
+				conflicts.increment();
+			else if (status >= 400)
+				failed.increment();
+			else
+				succeeded.increment();
+		}
+
+		private static double percentile(long[] sorted, double percentile) {
+			int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+			return sorted[Math.max(0, index)] / 1000.0;
+		}
+
+		void report(double seconds) {
+			long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+
+			if (sorted.length == 0)
+				return;
+
+			Arrays.sort(sorted);
+			System.out.printf("%-8s %8d req %10.1f req/s  p50 %9.1fus  p99 %9.1fus  p999 %9.1fus  ok %6d  conflict %6d (%5.1f%%)  error %5d%n",
+					name, sorted.length, sorted.length / seconds,
+					percentile(sorted, 50), percentile(sorted, 99), percentile(sorted, 99.9),
+					succeeded.sum(), conflicts.sum(), 100.0 * conflicts.sum() / sorted.length, failed.sum());
+		}
+	}
+
+	@Before
+	public void setup() {
+		bookingRepository.deleteAll();
+		availabilityIndex.load(Collections.emptyList());
+	}
+
+	private static String booking(LocalDate from, LocalDate to) throws Exception {
+		JSONObject reservation = new JSONObject();
+		reservation.put("email", "tomasjuarez@gmail.com");
+		reservation.put("name", "Tomas");
+		reservation.put("lastName", "Juarez");
+		reservation.put("date", from.toString());
+		reservation.put("dateTo", to.toString());
+		return reservation.toString();
+	}
+
+	private MockHttpServletResponse timed(Stats stats, RequestBuilder request) throws Exception {
+		long start = System.nanoTime();
+		MockHttpServletResponse response = mvc.perform(request).andReturn().getResponse();
+		stats.record(System.nanoTime() - start, response.getStatus());
+		return response;
+	}
+
+	//the last day that can be booked, the one everybody wants right after midnight.
+	@Test
+	public void midnightRushForNewDay() throws Exception {
+		LocalDate newDay = LocalDate.now().plusDays(AvailabilityIndex.MAX_DAYS_AHEAD);
+		Stats posts = new Stats("POST");
+		ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+		CountDownLatch start = new CountDownLatch(1);
+
+		for (int client = 0; client < CLIENTS; client++)
+			executor.submit(() -> {
+				start.await();
+				return timed(posts, post("/booking").contentType(MediaType.APPLICATION_JSON).content(booking(newDay, newDay)));
+			});
+
+		long began = System.nanoTime();
+		start.countDown();
+		executor.shutdown();
+		executor.awaitTermination(5, TimeUnit.MINUTES);
+		posts.report((System.nanoTime() - began) / 1e9);
+
+		assertThat(posts.succeeded.sum()).isEqualTo(1);
+		assertThat(posts.conflicts.sum()).isEqualTo(CLIENTS - 1);
+		assertNoDayIsDoubleBooked();
+	}
+
+	@Test
+	public void mixedContentionOnHotDays() throws Exception {
+		Stats posts = new Stats("POST");
+		Stats patches = new Stats("PATCH");
+		Stats deletes = new Stats("DELETE");
+		ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+		CountDownLatch start = new CountDownLatch(1);
+
+		for (int client = 0; client < CLIENTS; client++)
+			executor.submit(() -> {
+				ThreadLocalRandom random = ThreadLocalRandom.current();
+				List<String> owned = new ArrayList<>();
+				start.await();
+
+				for (int operation = 0; operation < OPERATIONS; operation++) {
+					LocalDate from = LocalDate.now().plusDays(1 + random.nextInt(HOT_DAYS));
+					LocalDate to = from.plusDays(random.nextInt(3));
+					int dice = random.nextInt(100);
+
+					if (owned.isEmpty() || dice < POST_PERCENT) {
+						MockHttpServletResponse response = timed(posts, post("/booking").contentType(MediaType.APPLICATION_JSON).content(booking(from, to)));
+
+						if (response.getStatus() == HttpStatus.CREATED.value())
+							owned.add(JsonPath.parse(response.getContentAsString()).read("$.payload.uuid"));
+					}
+					else if (dice < POST_PERCENT + PATCH_PERCENT) {
+						String uuid = owned.get(random.nextInt(owned.size()));
+						timed(patches, patch("/booking/" + uuid).contentType(MediaType.APPLICATION_JSON).content(booking(from, to)));
+					}
+					else {
+						String uuid = owned.remove(random.nextInt(owned.size()));
+						timed(deletes, delete("/booking/" + uuid));
+					}
+				}
+
+				return owned.size();
+			});
+
+		long began = System.nanoTime();
+		start.countDown();
+		executor.shutdown();
+		executor.awaitTermination(30, TimeUnit.MINUTES);
+		double seconds = (System.nanoTime() - began) / 1e9;
+
+		System.out.printf("%d clients x %d operations on %d hot days in %.2fs%n", CLIENTS, OPERATIONS, HOT_DAYS, seconds);
+		posts.report(seconds);
+		patches.report(seconds);
+		deletes.report(seconds);
+
+		assertThat(patches.failed.sum()).isEqualTo(0);
+		assertThat(deletes.failed.sum()).isEqualTo(0);
+		assertNoDayIsDoubleBooked();
+	}
+
+	private void assertNoDayIsDoubleBooked() {
+		List<Booking> rows = bookingRepository.findAll();
+		Map<LocalDate, String> owners = new HashMap<>();
+		Map<String, List<LocalDate>> days = new HashMap<>();
+
+		for (Booking row : rows)
+			for (Booking day : row.days()) {
+				assertThat(owners.put(day.getDate(), day.getUuid())).as("owner of %s", day.getDate()).isNull();
+				days.computeIfAbsent(day.getUuid(), uuid -> new ArrayList<>()).add(day.getDate());
+			}
+
+		//a booking is still a single row of 1 to 3 days, whatever it went through.
+		assertThat(days).hasSize(rows.size());
+		days.values().forEach(dates -> {
+			Collections.sort(dates);
+			assertThat(dates.size()).isBetween(1, 3);
+			assertThat(dates.get(dates.size() - 1)).isEqualTo(dates.get(0).plusDays(dates.size() - 1));
+		});
+
+		//and the in-memory index agrees with the table.
+		assertThat(availabilityIndex.reconcile(rows, availabilityIndex.versions())).isEqualTo(0);
+	}
+}
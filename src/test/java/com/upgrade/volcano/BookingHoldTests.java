@@ -0,0 +1,193 @@
+package com.upgrade.volcano;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+import java.time.LocalDate;
+import java.util.Collections;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.jayway.jsonpath.JsonPath;
+import com.upgrade.volcano.availability.AvailabilityIndex;
+import com.upgrade.volcano.availability.HoldRegistry;
+import com.upgrade.volcano.availability.ReservationEngine;
+import com.upgrade.volcano.repository.Booking;
+import com.upgrade.volcano.repository.BookingRepository;
+import com.upgrade.volcano.repository.BookingVersion;
+import com.upgrade.volcano.resources.AdmissionControl;
+import com.upgrade.volcano.resources.Campsites;
+import com.upgrade.volcano.resources.ConflictExceptionController;
+import com.upgrade.volcano.resources.HoldResource;
+import com.upgrade.volcano.resources.InternalServerErrorExceptionController;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BookingHoldTests {
+
+    private static final long TTL = 60000L;
+
+    private MockMvc mvc;
+
+    @Mock
+    private BookingRepository bookingRepository;
+
+    private AvailabilityIndex availabilityIndex;
+
+    private HoldRegistry holdRegistry;
+
+    @Before
+    public void setup() {
+        availabilityIndex = new AvailabilityIndex();
+        holdRegistry = new HoldRegistry(new ReservationEngine(availabilityIndex), new SimpleMeterRegistry(), TTL, 1000L, 2);
+        mvc = MockMvcBuilders
+        		.standaloneSetup(new HoldResource(holdRegistry, bookingRepository, new BookingVersion(), new Campsites(Collections.emptyList()),
+        				new AdmissionControl(availabilityIndex, new SimpleMeterRegistry(), 1000, 1000, 8, 1000L), null))
+        		.setControllerAdvice(new ConflictExceptionController(new SimpleMeterRegistry()), new InternalServerErrorExceptionController(new SimpleMeterRegistry()))
+        		.build();
+    }
+
+    private MockHttpServletResponse hold(LocalDate from, LocalDate to) throws Exception {
+    	JSONObject days = new JSONObject();
+    	days.put("date", from.toString());
+    	days.put("dateTo", to.toString());
+    	return mvc.perform(post("/booking/holds").contentType(MediaType.APPLICATION_JSON).content(days.toString())).andReturn().getResponse();
+    }
+
+    private MockHttpServletResponse confirm(String uuid) throws Exception {
+    	JSONObject guest = new JSONObject();
+    	guest.put("email", "tomasjuarez@gmail.com");
+    	guest.put("name", "Tomas");
+    	guest.put("lastName", "Juarez");
+    	return mvc.perform(post("/booking/holds/" + uuid + "/confirm").contentType(MediaType.APPLICATION_JSON).content(guest.toString())).andReturn().getResponse();
+    }
+
+    @Test
+    public void shouldKeepHeldDaysFromOthers() throws Exception {
+    	hold(LocalDate.now().plusDays(1), LocalDate.now().plusDays(2));
+
+        // when
+        MockHttpServletResponse response = hold(LocalDate.now().plusDays(2), LocalDate.now().plusDays(3));
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.CONFLICT.value());
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isTrue();
+        Mockito.verifyZeroInteractions(bookingRepository);
+    }
+
+    @Test
+    public void shouldTurnHoldIntoBookingWithSameUuid() throws Exception {
+    	String uuid = JsonPath.parse(hold(LocalDate.now().plusDays(1), LocalDate.now().plusDays(2)).getContentAsString()).read("$.payload.uuid");
+
+        // when
+        MockHttpServletResponse response = confirm(uuid);
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.CREATED.value());
+        String booked = JsonPath.parse(response.getContentAsString()).read("$.payload.uuid");
+        assertThat(booked).isEqualTo(uuid);
+        assertThat(availabilityIndex.isConfirmed(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(2))).isTrue();
+        Mockito.verify(bookingRepository).save(ArgumentMatchers.any(Booking.class));
+
+        //a hold is confirmed once.
+        assertThat(confirm(uuid).getStatus()).isEqualTo(HttpStatus.NOT_FOUND.value());
+    }
+
+    @Test
+    public void shouldGiveBackDaysOfExpiredHold() throws Exception {
+    	String uuid = JsonPath.parse(hold(LocalDate.now().plusDays(1), LocalDate.now().plusDays(2)).getContentAsString()).read("$.payload.uuid");
+
+        // when
+        int expired = holdRegistry.expire(System.currentTimeMillis() + TTL + 2000L);
+
+        // then
+        assertThat(expired).isEqualTo(1);
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isFalse();
+        assertThat(confirm(uuid).getStatus()).isEqualTo(HttpStatus.NOT_FOUND.value());
+        Mockito.verifyZeroInteractions(bookingRepository);
+    }
+
+    @Test
+    public void shouldRefuseHoldsPastLimitOfClient() throws Exception {
+    	String uuid = JsonPath.parse(hold(LocalDate.now().plusDays(1), LocalDate.now().plusDays(1)).getContentAsString()).read("$.payload.uuid");
+    	hold(LocalDate.now().plusDays(2), LocalDate.now().plusDays(2));
+
+        // when
+        MockHttpServletResponse response = hold(LocalDate.now().plusDays(3), LocalDate.now().plusDays(3));
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS.value());
+        assertThat(response.getHeader(HttpHeaders.RETRY_AFTER)).isNotNull();
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(3))).isFalse();
+
+        //a released hold makes room for another one.
+        mvc.perform(delete("/booking/holds/" + uuid));
+        assertThat(hold(LocalDate.now().plusDays(3), LocalDate.now().plusDays(3)).getStatus()).isEqualTo(HttpStatus.CREATED.value());
+    }
+
+    @Test
+    public void shouldGiveBackDaysOfHoldWhenConfirmConflicts() throws Exception {
+    	String uuid = JsonPath.parse(hold(LocalDate.now().plusDays(1), LocalDate.now().plusDays(2)).getContentAsString()).read("$.payload.uuid");
+    	Mockito.doThrow(new DataIntegrityViolationException("overlap")).when(bookingRepository).flush();
+
+        // when
+        MockHttpServletResponse response = confirm(uuid);
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.CONFLICT.value());
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isFalse();
+        assertThat(confirm(uuid).getStatus()).isEqualTo(HttpStatus.NOT_FOUND.value());
+    }
+
+    //nothing says the days are taken, the client may confirm again.
+    @Test
+    public void shouldKeepHoldWhenBookingCantBeSaved() throws Exception {
+    	String uuid = JsonPath.parse(hold(LocalDate.now().plusDays(1), LocalDate.now().plusDays(2)).getContentAsString()).read("$.payload.uuid");
+    	Mockito.doThrow(new DataAccessResourceFailureException("connection lost")).doNothing().when(bookingRepository).flush();
+
+        // when
+        MockHttpServletResponse response = confirm(uuid);
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR.value());
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isTrue();
+        assertThat(availabilityIndex.isConfirmed(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isFalse();
+
+        assertThat(confirm(uuid).getStatus()).isEqualTo(HttpStatus.CREATED.value());
+        assertThat(availabilityIndex.isConfirmed(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isTrue();
+    }
+
+    @Test
+    public void shouldKeepHoldWhenCampsiteStaysLocked() throws Exception {
+    	String uuid = JsonPath.parse(hold(LocalDate.now().plusDays(1), LocalDate.now().plusDays(2)).getContentAsString()).read("$.payload.uuid");
+    	Mockito.doThrow(new CannotAcquireLockException("lock timeout")).doNothing().when(bookingRepository).flush();
+
+        // when
+        MockHttpServletResponse response = confirm(uuid);
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.CONFLICT.value());
+        assertThat(JsonPath.parse(response.getContentAsString()).read("$.error", String.class)).isNotEmpty();
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isTrue();
+
+        assertThat(confirm(uuid).getStatus()).isEqualTo(HttpStatus.CREATED.value());
+    }
+}
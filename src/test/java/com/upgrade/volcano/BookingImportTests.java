@@ -0,0 +1,236 @@
+package com.upgrade.volcano;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+import java.time.LocalDate;
+import java.util.Collections;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.jayway.jsonpath.JsonPath;
+import com.upgrade.volcano.availability.AvailabilityIndex;
+import com.upgrade.volcano.availability.ReservationEngine;
+import com.upgrade.volcano.repository.Booking;
+import com.upgrade.volcano.repository.BookingRepository;
+import com.upgrade.volcano.repository.BookingVersion;
+import com.upgrade.volcano.resources.AdmissionControl;
+import com.upgrade.volcano.resources.BookingImportResource;
+import com.upgrade.volcano.resources.Campsites;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@RunWith(MockitoJUnitRunner.class)
+public class BookingImportTests {
+
+    private MockMvc mvc;
+
+    @Mock
+    private BookingRepository bookingRepository;
+
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private AvailabilityIndex availabilityIndex;
+
+    @Before
+    public void setup() {
+        availabilityIndex = new AvailabilityIndex();
+        mvc = mvc(1000);
+    }
+
+    private MockMvc mvc(int burst) {
+        AdmissionControl admissionControl = new AdmissionControl(availabilityIndex, new SimpleMeterRegistry(), burst, 1, 8, 1000L);
+        return MockMvcBuilders
+        		.standaloneSetup(new BookingImportResource(bookingRepository, new ReservationEngine(availabilityIndex), new BookingVersion(), new Campsites(Collections.emptyList()), admissionControl, null,
+        				Jackson2ObjectMapperBuilder.json().build(), transactionManager, 2))
+        		.build();
+    }
+
+    private static JSONObject booking(LocalDate from, LocalDate to) throws Exception {
+    	JSONObject reservation = new JSONObject();
+    	reservation.put("email", "tomasjuarez@gmail.com");
+    	reservation.put("name", "Tomas");
+    	reservation.put("lastName", "Juarez");
+    	reservation.put("date", from.toString());
+    	reservation.put("dateTo", to.toString());
+    	return reservation;
+    }
+
+    private static String status(String[] lines, int index) {
+    	return JsonPath.parse(lines[index]).read("$.status");
+    }
+
+    @Test
+    public void shouldReportEveryBookingOfArray() throws Exception {
+    	JSONObject malformedCampsite = booking(LocalDate.now().plusDays(6), LocalDate.now().plusDays(6));
+    	malformedCampsite.put("campsite", "north/../south");
+    	JSONArray bookings = new JSONArray()
+    			.put(booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(2)))
+    			.put(booking(LocalDate.now().plusDays(2), LocalDate.now().plusDays(3)))
+    			.put(booking(LocalDate.now().plusDays(4), LocalDate.now().plusDays(9)))
+    			.put(malformedCampsite)
+    			.put(booking(LocalDate.now().plusDays(5), LocalDate.now().plusDays(5)));
+
+        // when
+        MockHttpServletResponse response =
+            mvc.perform(post("/booking/import").contentType(MediaType.APPLICATION_JSON).content(bookings.toString()))
+            .andReturn()
+            .getResponse();
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+
+        String[] lines = response.getContentAsString().split("\n");
+        assertThat(lines).hasSize(5);
+        assertThat(status(lines, 0)).isEqualTo("created");
+        //the days were taken by the booking right before it.
+        assertThat(status(lines, 1)).isEqualTo("conflict");
+        assertThat(status(lines, 2)).isEqualTo("invalid");
+        assertThat(status(lines, 3)).isEqualTo("invalid");
+        assertThat(status(lines, 4)).isEqualTo("created");
+
+        int index = JsonPath.parse(lines[4]).read("$.index");
+        assertThat(index).isEqualTo(4);
+
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(3))).isFalse();
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(5))).isTrue();
+    }
+
+    @Test
+    public void shouldImportOneBookingPerLine() throws Exception {
+    	String bookings = booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(1)) + "\n"
+    			+ "{\"date\": \"not a date\"}\n"
+    			+ booking(LocalDate.now().plusDays(3), LocalDate.now().plusDays(4)) + "\n";
+
+        // when
+        MockHttpServletResponse response =
+            mvc.perform(post("/booking/import").contentType("application/x-ndjson").content(bookings))
+            .andReturn()
+            .getResponse();
+
+        // then
+        String[] lines = response.getContentAsString().split("\n");
+        assertThat(lines).hasSize(3);
+        assertThat(status(lines, 0)).isEqualTo("created");
+        assertThat(status(lines, 1)).isEqualTo("invalid");
+        assertThat(status(lines, 2)).isEqualTo("created");
+
+        //batches of 2, one insert for each.
+        Mockito.verify(bookingRepository, Mockito.times(2)).flush();
+    }
+
+    @Test
+    public void shouldInsertOneByOneWhenBatchFails() throws Exception {
+    	JSONArray bookings = new JSONArray()
+    			.put(booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(1)))
+    			.put(booking(LocalDate.now().plusDays(3), LocalDate.now().plusDays(3)));
+
+    	//the whole batch, then the first booking alone and then the second one alone.
+    	Mockito.doThrow(new DataIntegrityViolationException("duplicate")).doNothing().doThrow(new DataIntegrityViolationException("duplicate"))
+    		   .when(bookingRepository).flush();
+
+        // when
+        MockHttpServletResponse response =
+            mvc.perform(post("/booking/import").contentType(MediaType.APPLICATION_JSON).content(bookings.toString()))
+            .andReturn()
+            .getResponse();
+
+        // then
+        String[] lines = response.getContentAsString().split("\n");
+        assertThat(status(lines, 0)).isEqualTo("created");
+        assertThat(status(lines, 1)).isEqualTo("conflict");
+
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isTrue();
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(3))).isFalse();
+    }
+
+    @Test
+    public void shouldReportErrorWhenDatabaseFails() throws Exception {
+    	JSONArray bookings = new JSONArray()
+    			.put(booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(1)))
+    			.put(booking(LocalDate.now().plusDays(3), LocalDate.now().plusDays(3)));
+
+    	//the whole batch, then the first booking alone and then the second one alone.
+    	Mockito.doThrow(new DataIntegrityViolationException("duplicate")).doThrow(new CannotAcquireLockException("lock timeout")).doThrow(new DataIntegrityViolationException("duplicate"))
+    		   .when(bookingRepository).flush();
+
+        // when
+        MockHttpServletResponse response =
+            mvc.perform(post("/booking/import").contentType(MediaType.APPLICATION_JSON).content(bookings.toString()))
+            .andReturn()
+            .getResponse();
+
+        // then
+        String[] lines = response.getContentAsString().split("\n");
+        //the days may well be free, the client can send it again.
+        assertThat(status(lines, 0)).isEqualTo("error");
+        assertThat(status(lines, 1)).isEqualTo("conflict");
+
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isFalse();
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(3))).isFalse();
+    }
+
+    //each booking of the import takes a token of the client, like a POST /booking.
+    @Test
+    public void shouldThrottleBookingsPastBurstOfClient() throws Exception {
+    	mvc = mvc(2);
+    	JSONArray bookings = new JSONArray()
+    			.put(booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(1)))
+    			.put(booking(LocalDate.now().plusDays(3), LocalDate.now().plusDays(3)))
+    			.put(booking(LocalDate.now().plusDays(5), LocalDate.now().plusDays(5)));
+
+        // when
+        MockHttpServletResponse response =
+            mvc.perform(post("/booking/import").contentType(MediaType.APPLICATION_JSON).content(bookings.toString()))
+            .andReturn()
+            .getResponse();
+
+        // then
+        String[] lines = response.getContentAsString().split("\n");
+        assertThat(status(lines, 0)).isEqualTo("created");
+        assertThat(status(lines, 1)).isEqualTo("created");
+        assertThat(status(lines, 2)).isEqualTo("throttled");
+        int retryAfter = JsonPath.parse(lines[2]).read("$.retryAfter");
+        assertThat(retryAfter).isEqualTo(1);
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(5))).isFalse();
+    }
+
+    //the syntax error is found looking for the next booking, the ones before it are still answered.
+    @Test
+    public void shouldAnswerBookingsReadBeforeBrokenJson() throws Exception {
+    	String bookings = "[" + booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(1)) + ", x, "
+    			+ booking(LocalDate.now().plusDays(3), LocalDate.now().plusDays(3)) + "]";
+
+        // when
+        MockHttpServletResponse response =
+            mvc.perform(post("/booking/import").contentType(MediaType.APPLICATION_JSON).content(bookings))
+            .andReturn()
+            .getResponse();
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        String[] lines = response.getContentAsString().split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(status(lines, 0)).isEqualTo("created");
+        assertThat(status(lines, 1)).isEqualTo("invalid");
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isTrue();
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(3))).isFalse();
+    }
+}
@@ -0,0 +1,243 @@
+package com.upgrade.volcano;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowable;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import com.upgrade.volcano.archive.BookingArchiver;
+import com.upgrade.volcano.journal.BookingJournal;
+import com.upgrade.volcano.journal.JournalRecord;
+import com.upgrade.volcano.journal.JournalWriteBehind;
+import com.upgrade.volcano.repository.ArchivedBookingRepository;
+import com.upgrade.volcano.repository.Booking;
+import com.upgrade.volcano.repository.BookingRepository;
+import com.upgrade.volcano.repository.BookingVersion;
+
+public class BookingJournalTests {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private BookingJournal open() throws Exception {
+    	return new BookingJournal(folder.getRoot().getPath(), 64 * 1024);
+    }
+
+    private static Booking booking(LocalDate from, LocalDate to) {
+    	Booking booking = new Booking("Tomas", "Juarez", "tomasjuarez@gmail.com", from, to);
+    	booking.setUuid(UUID.randomUUID().toString());
+    	return booking;
+    }
+
+    @Test
+    public void shouldRebuildBookingsWhenReopened() throws Exception {
+    	Booking kept = booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(2));
+    	Booking deleted = booking(LocalDate.now().plusDays(5), LocalDate.now().plusDays(5));
+    	BookingJournal journal = open();
+
+    	journal.append(JournalRecord.created(kept)).join();
+    	journal.append(JournalRecord.created(deleted)).join();
+    	journal.append(JournalRecord.updated(journal.find(kept.getUuid()), LocalDate.now().plusDays(3), LocalDate.now().plusDays(5))).join();
+    	journal.append(JournalRecord.deleted(deleted.getUuid(), deleted.getCampsite())).join();
+    	journal.close();
+
+    	// when
+    	BookingJournal reopened = open();
+
+    	// then
+    	assertThat(reopened.bookings()).hasSize(1);
+    	assertThat(reopened.find(deleted.getUuid())).isNull();
+    	assertThat(reopened.find(kept.getUuid()).days())
+    		.extracting(Booking::getDate)
+    		.containsExactly(LocalDate.now().plusDays(3), LocalDate.now().plusDays(4), LocalDate.now().plusDays(5));
+    	reopened.close();
+    }
+
+    @Test
+    public void shouldRefuseChangeOfStaleVersion() throws Exception {
+    	Booking booking = booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(1));
+    	BookingJournal journal = open();
+    	journal.append(JournalRecord.created(booking)).join();
+    	JournalRecord created = journal.find(booking.getUuid());
+    	journal.appendIfVersion(JournalRecord.updated(created, LocalDate.now().plusDays(2), LocalDate.now().plusDays(2)), 0L).join();
+
+    	// when
+    	Object stale = journal.appendIfVersion(JournalRecord.updated(created, LocalDate.now().plusDays(3), LocalDate.now().plusDays(3)), 0L);
+
+    	// then
+    	assertThat(stale).isNull();
+    	assertThat(journal.find(booking.getUuid()).getVersion()).isEqualTo(1L);
+    	assertThat(journal.find(booking.getUuid()).days())
+    		.extracting(Booking::getDate)
+    		.containsExactly(LocalDate.now().plusDays(2));
+    	journal.close();
+    }
+
+    @Test
+    public void shouldDiscardTornRecordAndKeepAppending() throws Exception {
+    	Booking first = booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(1));
+    	Booking torn = booking(LocalDate.now().plusDays(2), LocalDate.now().plusDays(2));
+    	BookingJournal journal = open();
+    	journal.append(JournalRecord.created(first)).join();
+    	journal.append(JournalRecord.created(torn)).join();
+    	journal.close();
+
+    	//a crash in the middle of the last append.
+    	Path file = folder.getRoot().toPath().resolve("bookings.journal");
+    	byte[] bytes = Files.readAllBytes(file);
+    	int last = bytes.length - 1;
+    	while (bytes[last] == 0)
+    		last--;
+    	bytes[last] ^= 0x7f;
+    	Files.write(file, bytes);
+
+    	// when
+    	BookingJournal reopened = open();
+    	Booking next = booking(LocalDate.now().plusDays(3), LocalDate.now().plusDays(3));
+    	reopened.append(JournalRecord.created(next)).join();
+    	reopened.close();
+    	BookingJournal recovered = open();
+
+    	// then
+    	assertThat(recovered.find(first.getUuid())).isNotNull();
+    	assertThat(recovered.find(torn.getUuid())).isNull();
+    	assertThat(recovered.find(next.getUuid())).isNotNull();
+    	recovered.close();
+    }
+
+    @Test
+    public void shouldKeepLiveBookingsWhenCompacting() throws Exception {
+    	Booking booking = booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(1));
+    	BookingJournal journal = open();
+    	journal.append(JournalRecord.created(booking)).join();
+
+    	//enough moves to fill the journal several times.
+    	for (int i = 0; i < 5000; i++)
+    		journal.append(JournalRecord.updated(journal.find(booking.getUuid()), LocalDate.now().plusDays(1 + i % 10), LocalDate.now().plusDays(1 + i % 10))).join();
+
+    	// when
+    	journal.compact();
+    	journal.close();
+    	BookingJournal reopened = open();
+
+    	// then
+    	assertThat(reopened.bookings()).hasSize(1);
+    	assertThat(reopened.find(booking.getUuid()).days())
+    		.extracting(Booking::getDate)
+    		.containsExactly(LocalDate.now().plusDays(1 + 4999 % 10));
+    	reopened.close();
+    }
+
+    @Test
+    public void shouldKeepRetryingRecordRefusedByTable() throws Exception {
+    	Booking refused = booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(1));
+    	Booking other = booking(LocalDate.now().plusDays(3), LocalDate.now().plusDays(3));
+    	BookingJournal journal = open();
+    	BookingRepository bookingRepository = Mockito.mock(BookingRepository.class);
+    	AtomicBoolean tableDown = new AtomicBoolean(true);
+    	Mockito.when(bookingRepository.save(ArgumentMatchers.argThat((Booking row) -> row != null && refused.getUuid().equals(row.getUuid()))))
+    		   .thenAnswer(invocation -> {
+    			   if (tableDown.get())
+    				   throw new DataAccessResourceFailureException("table unavailable");
+    			   return invocation.getArgument(0);
+    		   });
+    	JournalWriteBehind writeBehind = new JournalWriteBehind(journal, bookingRepository, Mockito.mock(ArchivedBookingRepository.class),
+    			Mockito.mock(BookingArchiver.class), new BookingVersion(),
+    			Mockito.mock(PlatformTransactionManager.class), 500, 1, new MockEnvironment());
+    	writeBehind.start();
+
+    	// when
+    	journal.append(JournalRecord.created(refused)).join();
+    	journal.append(JournalRecord.created(other)).join();
+
+    	// then
+    	//the batch, then the record alone a few times: it's still owed to the table.
+    	Mockito.verify(bookingRepository, Mockito.timeout(5000).atLeast(4))
+    		   .save(ArgumentMatchers.argThat((Booking row) -> row != null && refused.getUuid().equals(row.getUuid())));
+    	assertThat(writeBehind.isBehind()).isTrue();
+
+    	tableDown.set(false);
+    	Mockito.verify(bookingRepository, Mockito.timeout(5000))
+    		   .save(ArgumentMatchers.argThat((Booking row) -> row != null && other.getUuid().equals(row.getUuid())));
+    	writeBehind.stop();
+    	assertThat(writeBehind.isBehind()).isFalse();
+    	journal.close();
+    }
+
+    //the table refuses a row of the load: whatever was restored before it has to be rolled back with the delete.
+    @Test
+    public void shouldLoadTableInOneTransaction() throws Exception {
+    	BookingJournal journal = new BookingJournal(folder.getRoot().getPath(), 1024 * 1024);
+    	for (int i = 0; i < 6000; i++)
+    		journal.append(JournalRecord.created(booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(1)))).join();
+    	BookingRepository bookingRepository = Mockito.mock(BookingRepository.class);
+    	Mockito.when(bookingRepository.saveAll(ArgumentMatchers.anyIterable()))
+    		   .thenReturn(null)
+    		   .thenThrow(new DataAccessResourceFailureException("table unavailable"));
+    	PlatformTransactionManager transactionManager = Mockito.mock(PlatformTransactionManager.class);
+    	JournalWriteBehind writeBehind = new JournalWriteBehind(journal, bookingRepository, Mockito.mock(ArchivedBookingRepository.class),
+    			Mockito.mock(BookingArchiver.class), new BookingVersion(),
+    			transactionManager, 500, 1, new MockEnvironment());
+
+    	// when
+    	Throwable error = catchThrowable(writeBehind::start);
+
+    	// then
+    	assertThat(error).isInstanceOf(DataAccessResourceFailureException.class);
+    	Mockito.verify(transactionManager, Mockito.times(1)).getTransaction(Mockito.any());
+    	Mockito.verify(transactionManager).rollback(Mockito.any());
+    	Mockito.verify(transactionManager, Mockito.never()).commit(Mockito.any());
+    	journal.close();
+    }
+
+    @Test
+    public void shouldMoveBookingsThatAreOverBackToArchiveWhenLoading() throws Exception {
+    	BookingJournal journal = open();
+    	journal.append(JournalRecord.created(booking(LocalDate.now().minusDays(10), LocalDate.now().minusDays(9)))).join();
+    	ArchivedBookingRepository archivedBookingRepository = Mockito.mock(ArchivedBookingRepository.class);
+    	BookingArchiver bookingArchiver = Mockito.mock(BookingArchiver.class);
+    	Mockito.when(bookingArchiver.cutoff()).thenReturn(LocalDate.now().minusDays(2));
+    	Mockito.when(bookingArchiver.moveBatch(LocalDate.now().minusDays(2))).thenReturn(1, 0);
+    	JournalWriteBehind writeBehind = new JournalWriteBehind(journal, Mockito.mock(BookingRepository.class), archivedBookingRepository,
+    			bookingArchiver, new BookingVersion(), Mockito.mock(PlatformTransactionManager.class), 500, 1, new MockEnvironment());
+
+    	// when
+    	writeBehind.start();
+
+    	// then
+    	//the archive is filled from the journal again, not added to what it had.
+    	Mockito.verify(archivedBookingRepository).deleteAllInBatch();
+    	Mockito.verify(bookingArchiver, Mockito.times(2)).moveBatch(LocalDate.now().minusDays(2));
+    	writeBehind.stop();
+    	journal.close();
+    }
+
+    @Test
+    public void shouldRefuseToStartWithReactiveProfile() throws Exception {
+    	BookingJournal journal = open();
+    	MockEnvironment environment = new MockEnvironment();
+    	environment.setActiveProfiles("reactive");
+
+    	// when
+    	Throwable error = catchThrowable(() -> new JournalWriteBehind(journal, Mockito.mock(BookingRepository.class),
+    			Mockito.mock(ArchivedBookingRepository.class), Mockito.mock(BookingArchiver.class), new BookingVersion(),
+    			Mockito.mock(PlatformTransactionManager.class), 500, 1, environment));
+
+    	// then
+    	assertThat(error).isInstanceOf(IllegalStateException.class);
+    	journal.close();
+    }
+}
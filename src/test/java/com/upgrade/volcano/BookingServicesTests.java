@@ -9,32 +9,57 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.UUID;
+import java.util.stream.Stream;
 
 import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
-import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.MockitoJUnitRunner;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.json.JacksonTester;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.ByteArrayHttpMessageConverter;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.jayway.jsonpath.JsonPath;
+import com.upgrade.volcano.availability.AvailabilityIndex;
+import com.upgrade.volcano.availability.ReservationEngine;
+import com.upgrade.volcano.repository.ArchivedBooking;
+import com.upgrade.volcano.repository.ArchivedBookingRepository;
 import com.upgrade.volcano.repository.Booking;
+import com.upgrade.volcano.repository.BookingDay;
 import com.upgrade.volcano.repository.BookingRepository;
+import com.upgrade.volcano.repository.BookingVersion;
+import com.upgrade.volcano.resources.AdmissionControl;
 import com.upgrade.volcano.resources.BookingResource;
+import com.upgrade.volcano.resources.Campsites;
+import com.upgrade.volcano.resources.IdempotencyCache;
+import com.upgrade.volcano.resources.RenderedResponseCache;
 import com.upgrade.volcano.resources.ConflictExceptionController;
+import com.upgrade.volcano.resources.InternalServerErrorExceptionController;
+import com.upgrade.volcano.resources.PreconditionFailedExceptionController;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 
 @RunWith(MockitoJUnitRunner.class)
 @SpringBootTest
@@ -45,17 +70,35 @@ public class BookingServicesTests {
     
     @Mock
     private BookingRepository bookingRepository;
+    
+    @Mock
+    private ArchivedBookingRepository archivedBookingRepository;
+    
+    @Mock
+    private PlatformTransactionManager transactionManager;
  
-    @InjectMocks
+    private AvailabilityIndex availabilityIndex;
+    
     private BookingResource bookingController;
  
     @Before
     public void setup() {
         JacksonTester.initFields(this, new ObjectMapper());
+        availabilityIndex = new AvailabilityIndex();
+        BookingVersion bookingVersion = new BookingVersion();
+        //dates go out as strings, like with the application's Jackson setup.
+        ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS).build();
+        bookingController = new BookingResource(bookingRepository, archivedBookingRepository, availabilityIndex, new ReservationEngine(availabilityIndex),
+        		new Campsites(Collections.singletonList("north")), new RenderedResponseCache(objectMapper, bookingVersion, 64), bookingVersion,
+        		new IdempotencyCache(100, 60000L, 1000L), null,
+        		new AdmissionControl(availabilityIndex, new SimpleMeterRegistry(), 1000, 1000, 8, 1000L), transactionManager, 3);
         mvc = MockMvcBuilders
         		.standaloneSetup(bookingController)
-        		.setControllerAdvice(new ConflictExceptionController())
+        		.setMessageConverters(new ByteArrayHttpMessageConverter(), new MappingJackson2HttpMessageConverter(objectMapper))
+        		.setControllerAdvice(new ConflictExceptionController(new SimpleMeterRegistry()), new PreconditionFailedExceptionController(new SimpleMeterRegistry()), new InternalServerErrorExceptionController(new SimpleMeterRegistry()))
         		.build();
+        //nobody else edits the booking unless a test says so.
+        Mockito.lenient().when(bookingRepository.claimVersion(Mockito.anyString(), Mockito.anyLong())).thenReturn(1);
     }
     
     @Test
@@ -80,13 +123,20 @@ public class BookingServicesTests {
         
         // then
         assertThat(response.getStatus()).isEqualTo(HttpStatus.CREATED.value());
+        //a single row for the whole booking, written once the days were found free.
+        Mockito.verify(bookingRepository).requireFree(Mockito.eq(Booking.DEFAULT_CAMPSITE), Mockito.anyString(), Mockito.eq(LocalDate.now().plusDays(1)), Mockito.eq(LocalDate.now().plusDays(3)));
+        Mockito.verify(bookingRepository).save(Mockito.any(Booking.class));
+        Mockito.verify(bookingRepository, Mockito.never()).saveAll(Mockito.anyIterable());
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isTrue();
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(3))).isTrue();
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(4))).isFalse();
     }
     
     @Test
     public void shouldReportConflictGivenSameBookingDates() throws Exception {
 
-    	Mockito.when(bookingRepository.save(Mockito.any(Booking.class)))
-    		   .thenThrow(new RuntimeException());
+    	Mockito.doThrow(new DataIntegrityViolationException("taken"))
+    		   .when(bookingRepository).requireFree(Mockito.anyString(), Mockito.anyString(), Mockito.any(LocalDate.class), Mockito.any(LocalDate.class));
          
     	JSONObject reservation = new JSONObject();
     	reservation.put("email", "tomasjuarez@gmail.com");
@@ -107,8 +157,241 @@ public class BookingServicesTests {
         
         // then
         assertThat(response.getStatus()).isEqualTo(HttpStatus.CONFLICT.value());
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isFalse();
+    }
+    
+    @Test
+    public void shouldReplayFirstResponseForSameIdempotencyKey() throws Exception {
+    	
+    	JSONObject reservation = new JSONObject();
+    	reservation.put("email", "tomasjuarez@gmail.com");
+    	reservation.put("name", "Tomas");
+    	reservation.put("lastName", "Juarez");
+    	reservation.put("date", LocalDate.now().plusDays(1).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	reservation.put("dateTo", LocalDate.now().plusDays(3).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	String key = UUID.randomUUID().toString();
+    	
+        // when
+        MockHttpServletResponse first = 
+        	mvc.perform(
+                post("/booking/")
+                	.header("Idempotency-Key", key)
+                	.contentType(MediaType.APPLICATION_JSON)
+                	.content(reservation.toString())
+                )
+        	.andReturn()
+        	.getResponse();
+        MockHttpServletResponse retry = 
+        	mvc.perform(
+                post("/booking/")
+                	.header("Idempotency-Key", key)
+                	.contentType(MediaType.APPLICATION_JSON)
+                	.content(reservation.toString())
+                )
+        	.andReturn()
+        	.getResponse();
+        
+        // then
+        assertThat(first.getStatus()).isEqualTo(HttpStatus.CREATED.value());
+        assertThat(retry.getStatus()).isEqualTo(HttpStatus.CREATED.value());
+        String uuid = JsonPath.parse(first.getContentAsString()).read("$.payload.uuid");
+        String replayed = JsonPath.parse(retry.getContentAsString()).read("$.payload.uuid");
+        assertThat(replayed).isEqualTo(uuid);
+        Mockito.verify(bookingRepository, Mockito.times(1)).save(Mockito.any(Booking.class));
+    }
+    
+    @Test
+    public void shouldRefuseIdempotencyKeyReusedForAnotherBooking() throws Exception {
+    	JSONObject reservation = new JSONObject();
+    	reservation.put("email", "tomasjuarez@gmail.com");
+    	reservation.put("name", "Tomas");
+    	reservation.put("lastName", "Juarez");
+    	reservation.put("date", LocalDate.now().plusDays(1).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	reservation.put("dateTo", LocalDate.now().plusDays(1).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	String key = UUID.randomUUID().toString();
+    	mvc.perform(post("/booking/").header("Idempotency-Key", key).contentType(MediaType.APPLICATION_JSON).content(reservation.toString()));
+    	reservation.put("date", LocalDate.now().plusDays(5).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	reservation.put("dateTo", LocalDate.now().plusDays(5).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	
+        // when
+        MockHttpServletResponse reused = 
+        	mvc.perform(
+                post("/booking/")
+                	.header("Idempotency-Key", key)
+                	.contentType(MediaType.APPLICATION_JSON)
+                	.content(reservation.toString())
+                )
+        	.andReturn()
+        	.getResponse();
+        
+        // then
+        assertThat(reused.getStatus()).isEqualTo(HttpStatus.UNPROCESSABLE_ENTITY.value());
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(5))).isFalse();
+        Mockito.verify(bookingRepository, Mockito.times(1)).save(Mockito.any(Booking.class));
     }
     
+    //a key still running when the cache overflows stays in line, and is dropped once it has its answer.
+    @Test
+    public void shouldEvictKeyThatWasRunningWhenCacheOverflowed() {
+    	IdempotencyCache cache = new IdempotencyCache(1, 60000L, 1000L);
+    	IdempotencyCache.Execution first = cache.start("first", "a");
+    	IdempotencyCache.Execution second = cache.start("second", "b");
+    	first.complete(ResponseEntity.ok().build());
+    	second.complete(ResponseEntity.ok().build());
+    	
+        // when
+    	cache.start("third", "c");
+        
+        // then
+        assertThat(cache.start("first", "a").isFirst()).isTrue();
+    }
+    
+    //a failure that isn't a conflict isn't the answer for the key, the retry creates the booking.
+    @Test
+    public void shouldRunRetryAgainWhenFirstAttemptFailed() throws Exception {
+    	Mockito.when(bookingRepository.save(Mockito.any(Booking.class)))
+    		   .thenThrow(new DataAccessResourceFailureException("database unavailable"))
+    		   .thenAnswer(invocation -> invocation.getArgument(0));
+    	
+    	JSONObject reservation = new JSONObject();
+    	reservation.put("email", "tomasjuarez@gmail.com");
+    	reservation.put("name", "Tomas");
+    	reservation.put("lastName", "Juarez");
+    	reservation.put("date", LocalDate.now().plusDays(1).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	reservation.put("dateTo", LocalDate.now().plusDays(1).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	String key = UUID.randomUUID().toString();
+    	
+        // when
+        MockHttpServletResponse first = 
+        	mvc.perform(
+                post("/booking/")
+                	.header("Idempotency-Key", key)
+                	.contentType(MediaType.APPLICATION_JSON)
+                	.content(reservation.toString())
+                )
+        	.andReturn()
+        	.getResponse();
+        MockHttpServletResponse retry = 
+        	mvc.perform(
+                post("/booking/")
+                	.header("Idempotency-Key", key)
+                	.contentType(MediaType.APPLICATION_JSON)
+                	.content(reservation.toString())
+                )
+        	.andReturn()
+        	.getResponse();
+        
+        // then
+        assertThat(first.getStatus()).isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR.value());
+        assertThat(retry.getStatus()).isEqualTo(HttpStatus.CREATED.value());
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isTrue();
+    }
+    
+    @Test
+    public void shouldReportConflictWithoutReachingDatabase() throws Exception {
+    	availabilityIndex.book(Booking.DEFAULT_CAMPSITE, UUID.randomUUID().toString(), LocalDate.now().plusDays(2));
+    	
+    	JSONObject reservation = new JSONObject();
+    	reservation.put("email", "tomasjuarez@gmail.com");
+    	reservation.put("name", "Tomas");
+    	reservation.put("lastName", "Juarez");
+    	reservation.put("date", LocalDate.now().plusDays(1).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	reservation.put("dateTo", LocalDate.now().plusDays(3).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	
+        // when
+        MockHttpServletResponse response = 
+            mvc.perform(
+            	post("/booking/")
+	                .contentType(MediaType.APPLICATION_JSON)
+	                .content(reservation.toString())
+	        )
+            .andReturn()
+            .getResponse();
+        
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.CONFLICT.value());
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isFalse();
+        Mockito.verify(bookingRepository, Mockito.never()).save(Mockito.any(Booking.class));
+    }
+
+    @Test
+    public void shouldBookSameDaysOnAnotherCampsite() throws Exception {
+    	availabilityIndex.book(Booking.DEFAULT_CAMPSITE, UUID.randomUUID().toString(), LocalDate.now().plusDays(2));
+
+    	JSONObject reservation = new JSONObject();
+    	reservation.put("email", "tomasjuarez@gmail.com");
+    	reservation.put("name", "Tomas");
+    	reservation.put("lastName", "Juarez");
+    	reservation.put("campsite", "north");
+    	reservation.put("date", LocalDate.now().plusDays(1).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	reservation.put("dateTo", LocalDate.now().plusDays(3).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+
+        // when
+        MockHttpServletResponse response =
+            mvc.perform(
+            	post("/booking/")
+	                .contentType(MediaType.APPLICATION_JSON)
+	                .content(reservation.toString())
+	        )
+            .andReturn()
+            .getResponse();
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.CREATED.value());
+        assertThat(availabilityIndex.isBooked("north", LocalDate.now().plusDays(2))).isTrue();
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isFalse();
+    }
+
+    @Test
+    public void shouldRejectMalformedCampsite() throws Exception {
+    	JSONObject reservation = new JSONObject();
+    	reservation.put("email", "tomasjuarez@gmail.com");
+    	reservation.put("name", "Tomas");
+    	reservation.put("lastName", "Juarez");
+    	reservation.put("campsite", "north/../south");
+    	reservation.put("date", LocalDate.now().plusDays(1).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	reservation.put("dateTo", LocalDate.now().plusDays(3).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+
+        // when
+        MockHttpServletResponse response =
+            mvc.perform(
+            	post("/booking/")
+	                .contentType(MediaType.APPLICATION_JSON)
+	                .content(reservation.toString())
+	        )
+            .andReturn()
+            .getResponse();
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
+        Mockito.verify(bookingRepository, Mockito.never()).save(Mockito.any(Booking.class));
+    }
+
+    @Test
+    public void shouldRejectUnknownCampsite() throws Exception {
+    	JSONObject reservation = new JSONObject();
+    	reservation.put("email", "tomasjuarez@gmail.com");
+    	reservation.put("name", "Tomas");
+    	reservation.put("lastName", "Juarez");
+    	reservation.put("campsite", "south");
+    	reservation.put("date", LocalDate.now().plusDays(1).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	reservation.put("dateTo", LocalDate.now().plusDays(3).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+
+        // when
+        MockHttpServletResponse response =
+            mvc.perform(
+            	post("/booking/")
+	                .contentType(MediaType.APPLICATION_JSON)
+	                .content(reservation.toString())
+	        )
+            .andReturn()
+            .getResponse();
+
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.NOT_FOUND.value());
+        Mockito.verify(bookingRepository, Mockito.never()).save(Mockito.any(Booking.class));
+    }
+
     @Test
     public void shouldReturn404WhenUpdatingNonExistingBooking() throws Exception {
     	
@@ -134,16 +417,13 @@ public class BookingServicesTests {
     }
     
     
-	//For simplicity sake let's assume updates can only be within bookings that have the same length
-    //For example, if I create a 3 days booking and then I try to change it to be a 2 days booking, it should fail.
+    //A 3 days booking moved to a 2 days range keeps its row, only its dates change.
     @Test
-    public void shouldRejectWhenUpdatingDifferentLengthBooking() throws Exception {
+    public void shouldShortenBookingWhenUpdatingToLessDays() throws Exception {
     
     	List<Booking> reservations = new ArrayList<>();
 		String uuid = UUID.randomUUID().toString();
-    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(1), uuid));
-    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(2), uuid));
-    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(3), uuid));
+    	reservations.add(booking(uuid, LocalDate.now().plusDays(1), LocalDate.now().plusDays(3)));
     	
     	Mockito.when(bookingRepository.findByUuid(uuid))
 		   	   .thenReturn(reservations);
@@ -163,7 +443,147 @@ public class BookingServicesTests {
             .getResponse();
         
         // then
-        assertThat(response.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST.value());
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.NO_CONTENT.value());
+        Mockito.verify(bookingRepository).requireFree(Booking.DEFAULT_CAMPSITE, uuid, LocalDate.now().plusDays(6), LocalDate.now().plusDays(7));
+        Mockito.verify(bookingRepository).changeDates(uuid, LocalDate.now().plusDays(6), LocalDate.now().plusDays(7));
+        Mockito.verify(bookingRepository, Mockito.never()).save(Mockito.any(Booking.class));
+    }
+    
+    @Test
+    public void shouldExtendBookingWhenUpdatingToMoreDays() throws Exception {
+    	List<Booking> reservations = new ArrayList<>();
+		String uuid = UUID.randomUUID().toString();
+    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(1), uuid));
+    	
+    	Mockito.when(bookingRepository.findByUuid(uuid))
+		   	   .thenReturn(reservations);
+
+    	JSONObject reservation = new JSONObject();
+    	reservation.put("date", LocalDate.now().plusDays(2).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	reservation.put("dateTo", LocalDate.now().plusDays(4).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	
+        // when
+        MockHttpServletResponse response = 
+            mvc.perform(
+            	patch("/booking/"+uuid)
+            		.contentType(MediaType.APPLICATION_JSON)
+	                .content(reservation.toString())
+            )
+            .andReturn()
+            .getResponse();
+        
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.NO_CONTENT.value());
+        Mockito.verify(bookingRepository).changeDates(uuid, LocalDate.now().plusDays(2), LocalDate.now().plusDays(4));
+        Mockito.verify(bookingRepository, Mockito.never()).save(Mockito.any(Booking.class));
+        assertThat(availabilityIndex.ownerOf(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(4))).isEqualTo(uuid);
+    }
+    
+    @Test
+    public void shouldRejectUpdateWithStaleIfMatch() throws Exception {
+    	List<Booking> reservations = new ArrayList<>();
+		String uuid = UUID.randomUUID().toString();
+    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(1), uuid));
+    	reservations.get(0).setVersion(2L);
+    	
+    	Mockito.when(bookingRepository.findByUuid(uuid))
+		   	   .thenReturn(reservations);
+
+    	JSONObject reservation = new JSONObject();
+    	reservation.put("date", LocalDate.now().plusDays(2).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	reservation.put("dateTo", LocalDate.now().plusDays(2).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	
+        // when
+        MockHttpServletResponse response = 
+            mvc.perform(
+            	patch("/booking/"+uuid)
+            		.header(HttpHeaders.IF_MATCH, "\"1\"")
+            		.contentType(MediaType.APPLICATION_JSON)
+	                .content(reservation.toString())
+            )
+            .andReturn()
+            .getResponse();
+        
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.PRECONDITION_FAILED.value());
+        Mockito.verify(bookingRepository, Mockito.never()).changeDates(Mockito.anyString(), Mockito.any(LocalDate.class), Mockito.any(LocalDate.class));
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(2))).isFalse();
+    }
+    
+    //the first attempt loses the version to another request, the second one reads the booking again and wins.
+    @Test
+    public void shouldRetryUpdateWhenBookingChangedMeanwhile() throws Exception {
+    	List<Booking> reservations = new ArrayList<>();
+		String uuid = UUID.randomUUID().toString();
+    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(1), uuid));
+    	
+    	Mockito.when(bookingRepository.findByUuid(uuid))
+		   	   .thenReturn(reservations);
+    	Mockito.when(bookingRepository.claimVersion(uuid, 0L))
+    		   .thenReturn(0, 1);
+
+    	JSONObject reservation = new JSONObject();
+    	reservation.put("date", LocalDate.now().plusDays(2).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	reservation.put("dateTo", LocalDate.now().plusDays(2).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	
+        // when
+        MockHttpServletResponse response = 
+            mvc.perform(
+            	patch("/booking/"+uuid)
+            		.contentType(MediaType.APPLICATION_JSON)
+	                .content(reservation.toString())
+            )
+            .andReturn()
+            .getResponse();
+        
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.NO_CONTENT.value());
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"1\"");
+        Mockito.verify(bookingRepository, Mockito.times(2)).findByUuid(uuid);
+        Mockito.verify(bookingRepository, Mockito.times(1)).changeDates(uuid, LocalDate.now().plusDays(2), LocalDate.now().plusDays(2));
+        //each attempt in a transaction of its own, the failed one is rolled back.
+        Mockito.verify(transactionManager, Mockito.times(2)).getTransaction(Mockito.any());
+        Mockito.verify(transactionManager, Mockito.times(1)).rollback(Mockito.any());
+    }
+    
+    @Test
+    public void shouldReportConflictWhenBookingStaysLocked() throws Exception {
+    	List<Booking> reservations = new ArrayList<>();
+		String uuid = UUID.randomUUID().toString();
+    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(1), uuid));
+    	
+    	Mockito.when(bookingRepository.findByUuid(uuid))
+		   	   .thenReturn(reservations);
+    	Mockito.when(bookingRepository.claimVersion(uuid, 0L))
+    		   .thenThrow(new CannotAcquireLockException("lock timeout"));
+
+    	JSONObject reservation = new JSONObject();
+    	reservation.put("date", LocalDate.now().plusDays(2).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	reservation.put("dateTo", LocalDate.now().plusDays(2).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	
+        // when
+        MockHttpServletResponse response = 
+            mvc.perform(
+            	patch("/booking/"+uuid)
+            		.contentType(MediaType.APPLICATION_JSON)
+	                .content(reservation.toString())
+            )
+            .andReturn()
+            .getResponse();
+        MockHttpServletResponse conditional = 
+            mvc.perform(
+            	patch("/booking/"+uuid)
+            		.header(HttpHeaders.IF_MATCH, "\"0\"")
+            		.contentType(MediaType.APPLICATION_JSON)
+	                .content(reservation.toString())
+            )
+            .andReturn()
+            .getResponse();
+        
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.CONFLICT.value());
+        assertThat(conditional.getStatus()).isEqualTo(HttpStatus.PRECONDITION_FAILED.value());
+        Mockito.verify(bookingRepository, Mockito.never()).changeDates(Mockito.anyString(), Mockito.any(LocalDate.class), Mockito.any(LocalDate.class));
     }
     
     @Test
@@ -196,12 +616,11 @@ public class BookingServicesTests {
     public void shouldUpdateBooking() throws Exception {
     	List<Booking> reservations = new ArrayList<>();
 		String uuid = UUID.randomUUID().toString();
-    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(1), uuid));
-    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(2), uuid));
-    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(3), uuid));
+    	reservations.add(booking(uuid, LocalDate.now().plusDays(1), LocalDate.now().plusDays(3)));
     	
     	Mockito.when(bookingRepository.findByUuid(uuid))
 		   	   .thenReturn(reservations);
+    	availabilityIndex.load(reservations);
 
     	JSONObject reservation = new JSONObject();
     	reservation.put("date", LocalDate.now().plusDays(5).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
@@ -219,6 +638,44 @@ public class BookingServicesTests {
         
         // then
         assertThat(response.getStatus()).isEqualTo(HttpStatus.NO_CONTENT.value());
+        Mockito.verify(bookingRepository).changeDates(uuid, LocalDate.now().plusDays(5), LocalDate.now().plusDays(7));
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isFalse();
+        assertThat(availabilityIndex.ownerOf(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(5))).isEqualTo(uuid);
+        assertThat(availabilityIndex.ownerOf(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(7))).isEqualTo(uuid);
+    }
+    
+    @Test
+    public void shouldReportConflictWhenUpdateOverlapsAnotherBooking() throws Exception {
+    	List<Booking> reservations = new ArrayList<>();
+		String uuid = UUID.randomUUID().toString();
+    	reservations.add(booking(uuid, LocalDate.now().plusDays(1), LocalDate.now().plusDays(3)));
+    	
+    	Mockito.when(bookingRepository.findByUuid(uuid))
+		   	   .thenReturn(reservations);
+    	availabilityIndex.load(reservations);
+    	//the table has a booking on the new days that the index doesn't know about.
+    	Mockito.doThrow(new DataIntegrityViolationException("overlap"))
+    		   .when(bookingRepository).requireFree(Booking.DEFAULT_CAMPSITE, uuid, LocalDate.now().plusDays(5), LocalDate.now().plusDays(7));
+
+    	JSONObject reservation = new JSONObject();
+    	reservation.put("date", LocalDate.now().plusDays(5).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	reservation.put("dateTo", LocalDate.now().plusDays(7).format(DateTimeFormatter.ofPattern("YYYY-MM-dd")));
+    	
+        // when
+        MockHttpServletResponse response = 
+            mvc.perform(
+            	patch("/booking/"+uuid)
+	                .contentType(MediaType.APPLICATION_JSON)
+	                .content(reservation.toString())
+	        )
+            .andReturn()
+            .getResponse();
+        
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.CONFLICT.value());
+        Mockito.verify(bookingRepository, Mockito.never()).changeDates(Mockito.anyString(), Mockito.any(LocalDate.class), Mockito.any(LocalDate.class));
+        assertThat(availabilityIndex.ownerOf(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isEqualTo(uuid);
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(5))).isFalse();
     }
     
     @Test
@@ -241,15 +698,15 @@ public class BookingServicesTests {
         
         int length = JsonPath.parse(response.getContentAsString()).read("$.payload.length()");
         assertThat(length).isEqualTo(1);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"0\"");
     }
     
     @Test
     public void shouldReturnThreeDaysBooking() throws Exception {
     	List<Booking> reservations = new ArrayList<>();
 		String uuid = UUID.randomUUID().toString();
-    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(1), uuid));
-    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(2), uuid));
-    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(3), uuid));    	
+    	//stored as one row, listed once per day.
+    	reservations.add(booking(uuid, LocalDate.now().plusDays(1), LocalDate.now().plusDays(3)));
     	
     	Mockito.when(bookingRepository.findByUuid(uuid))
 		   	   .thenReturn(reservations);
@@ -280,18 +737,30 @@ public class BookingServicesTests {
         assertThat(response.getStatus()).isEqualTo(HttpStatus.NOT_FOUND.value());
     }
     
+    @Test
+    public void shouldReturn404WithoutLookupForMalformedBookingId() throws Exception {
+
+        // when
+        MockHttpServletResponse response = 
+            mvc.perform(get("/booking/not-a-uuid"))
+            .andReturn()
+            .getResponse();
+        
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.NOT_FOUND.value());
+        Mockito.verify(bookingRepository, Mockito.never()).findByUuid(Mockito.anyString());
+    }
+    
     @Test
     public void shouldReturnDefaultRangeOfDaysForBookingsList() throws Exception {
     	List<Booking> reservations = new ArrayList<>();
 		String uuid = UUID.randomUUID().toString();
-    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(1), uuid));
-    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(2), uuid));
-    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(3), uuid));
+    	reservations.add(booking(uuid, LocalDate.now().plusDays(1), LocalDate.now().plusDays(3)));
     	reservations.add(new Booking("chiri@gmail.com", "Agustin", "Chirichigno", LocalDate.now().plusDays(15), UUID.randomUUID().toString())); 
     	reservations.add(new Booking("rochi@gmail.com", "Rocio", "Zalla", LocalDate.now().plusDays(19), UUID.randomUUID().toString())); 
 
     	
-    	Mockito.when(bookingRepository.findByDateGreaterThanEqualAndDateLessThanEqual(LocalDate.now(), LocalDate.now().plusMonths(1)))
+    	Mockito.when(bookingRepository.findOverlapping(Booking.DEFAULT_CAMPSITE, LocalDate.now(), LocalDate.now().plusMonths(1)))
 		   	   .thenReturn(reservations);
     	
         // when
@@ -304,16 +773,235 @@ public class BookingServicesTests {
         assertThat(length).isEqualTo(5);
     }
     
+    @Test
+    public void shouldStreamRangeOfDaysInSameFormat() throws Exception {
+    	String uuid = UUID.randomUUID().toString();
+    	LocalDate from = LocalDate.now().minusYears(1);
+    	LocalDate to = LocalDate.now();
+    	
+    	Mockito.when(bookingRepository.streamByDateRange(Booking.DEFAULT_CAMPSITE, from, to))
+    		   .thenReturn(Stream.of(bookingDay(uuid, LocalDate.now().minusDays(10), LocalDate.now().minusDays(9))));
+    	
+        // when
+        MockHttpServletResponse response = 
+            mvc.perform(get("/booking/").param("stream", "true").param("from", from.toString()).param("to", to.toString()))
+            .andReturn()
+            .getResponse();
+        
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        
+        int length = JsonPath.parse(response.getContentAsString()).read("$.payload.length()");
+        assertThat(length).isEqualTo(2);
+        
+        String day = JsonPath.parse(response.getContentAsString()).read("$.payload[1].from");
+        assertThat(day).isEqualTo(LocalDate.now().minusDays(9).toString());
+        
+        Object error = JsonPath.parse(response.getContentAsString()).read("$.error");
+        assertThat(error).isNull();
+    }
+    
+    @Test
+    public void shouldReadPastDaysFromArchive() throws Exception {
+    	String uuid = UUID.randomUUID().toString();
+    	LocalDate from = LocalDate.now().minusDays(10);
+    	LocalDate to = LocalDate.now().plusDays(1);
+    	String moved = UUID.randomUUID().toString();
+    	List<Booking> active = new ArrayList<>();
+    	active.add(booking(uuid, LocalDate.now().minusDays(1), LocalDate.now().plusDays(1)));
+    	List<ArchivedBooking> archived = new ArrayList<>();
+    	archived.add(archivedBooking(UUID.randomUUID().toString(), LocalDate.now().minusDays(7), LocalDate.now().minusDays(6)));
+    	//moved by the archiver between both reads.
+    	archived.add(archivedBooking(moved, LocalDate.now().minusDays(4), LocalDate.now().minusDays(3)));
+    	active.add(booking(moved, LocalDate.now().minusDays(4), LocalDate.now().minusDays(3)));
+    	
+    	Mockito.when(bookingRepository.findOverlapping(Booking.DEFAULT_CAMPSITE, from, to)).thenReturn(active);
+    	Mockito.when(archivedBookingRepository.findOverlapping(Booking.DEFAULT_CAMPSITE, from, availabilityIndex.windowStart().minusDays(1)))
+    		   .thenReturn(archived);
+    	
+        // when
+        MockHttpServletResponse response = 
+            mvc.perform(get("/booking/").param("from", from.toString()).param("to", to.toString()))
+            .andReturn()
+            .getResponse();
+        
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        
+        int length = JsonPath.parse(response.getContentAsString()).read("$.payload.length()");
+        assertThat(length).isEqualTo(7);
+    }
+    
+    @Test
+    public void shouldFindArchivedBookingById() throws Exception {
+    	String uuid = UUID.randomUUID().toString();
+    	ArchivedBooking archived = archivedBooking(uuid, LocalDate.now().minusDays(7), LocalDate.now().minusDays(6));
+    	Mockito.when(archivedBookingRepository.findByUuid(uuid))
+    		   .thenReturn(Collections.singletonList(archived));
+    	
+        // when
+        MockHttpServletResponse response = 
+            mvc.perform(get("/booking/"+uuid))
+            .andReturn()
+            .getResponse();
+        
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        int length = JsonPath.parse(response.getContentAsString()).read("$.payload.length()");
+        assertThat(length).isEqualTo(2);
+    }
+    
+    @Test
+    public void shouldRefuseToChangeArchivedBooking() throws Exception {
+    	String uuid = UUID.randomUUID().toString();
+    	ArchivedBooking archived = archivedBooking(uuid, LocalDate.now().minusDays(7), LocalDate.now().minusDays(6));
+    	Mockito.when(archivedBookingRepository.findByUuid(uuid))
+    		   .thenReturn(Collections.singletonList(archived));
+    	JSONObject reservation = new JSONObject();
+    	reservation.put("date", LocalDate.now().plusDays(6).toString());
+    	reservation.put("dateTo", LocalDate.now().plusDays(7).toString());
+    	
+        // when
+        MockHttpServletResponse updated = 
+            mvc.perform(patch("/booking/"+uuid).contentType(MediaType.APPLICATION_JSON).content(reservation.toString()))
+            .andReturn()
+            .getResponse();
+        MockHttpServletResponse deleted = 
+            mvc.perform(delete("/booking/"+uuid))
+            .andReturn()
+            .getResponse();
+        
+        // then
+        assertThat(updated.getStatus()).isEqualTo(HttpStatus.CONFLICT.value());
+        assertThat(deleted.getStatus()).isEqualTo(HttpStatus.CONFLICT.value());
+        assertThat(JsonPath.parse(deleted.getContentAsString()).read("$.error", String.class)).contains("archived");
+        Mockito.verify(bookingRepository, Mockito.never()).changeDates(Mockito.anyString(), Mockito.any(), Mockito.any());
+        Mockito.verify(bookingRepository, Mockito.never()).deleteByUuid(Mockito.anyString());
+        assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(6))).isFalse();
+    }
+    
+    @Test
+    public void shouldNotReadArchiveForUpcomingDays() throws Exception {
+        // when
+        MockHttpServletResponse response = 
+            mvc.perform(get("/booking/"))
+            .andReturn()
+            .getResponse();
+        
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        Mockito.verifyZeroInteractions(archivedBookingRepository);
+    }
+    
+    private static Booking booking(String uuid, LocalDate from, LocalDate to) {
+    	Booking booking = new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", from, to);
+    	booking.setUuid(uuid);
+    	return booking;
+    }
+    
+    private static ArchivedBooking archivedBooking(String uuid, LocalDate from, LocalDate to) {
+    	ArchivedBooking booking = Mockito.mock(ArchivedBooking.class);
+    	//only read by range lookups.
+    	Mockito.lenient().when(booking.getUuid()).thenReturn(uuid);
+    	//not read when the booking is still in the booking table.
+    	Mockito.lenient().when(booking.toBooking()).thenReturn(booking(uuid, from, to));
+    	return booking;
+    }
+    
+    private static BookingDay bookingDay(String uuid, LocalDate from, LocalDate to) {
+    	return new BookingDay() {
+    		public String getUuid() { return uuid; }
+    		public LocalDate getDate() { return from; }
+    		public LocalDate getDateTo() { return to; }
+    	};
+    }
+    
+    @Test
+    public void shouldCollapseDaysOfSameBookingWhenCompact() throws Exception {
+    	List<Booking> reservations = new ArrayList<>();
+		String uuid = UUID.randomUUID().toString();
+    	reservations.add(booking(uuid, LocalDate.now().plusDays(1), LocalDate.now().plusDays(3)));
+    	reservations.add(new Booking("chiri@gmail.com", "Agustin", "Chirichigno", LocalDate.now().plusDays(4), UUID.randomUUID().toString())); 
+    	reservations.add(new Booking("rochi@gmail.com", "Rocio", "Zalla", LocalDate.now().plusDays(19), UUID.randomUUID().toString())); 
+    	
+    	Mockito.when(bookingRepository.findOverlapping(Booking.DEFAULT_CAMPSITE, LocalDate.now(), LocalDate.now().plusMonths(1)))
+		   	   .thenReturn(reservations);
+    	
+        // when
+        MockHttpServletResponse response = mvc.perform(get("/booking/").param("compact", "true")).andReturn().getResponse();
+        
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        
+        int length = JsonPath.parse(response.getContentAsString()).read("$.payload.length()");
+        assertThat(length).isEqualTo(3);
+        
+        String to = JsonPath.parse(response.getContentAsString()).read("$.payload[0].to");
+        assertThat(to).isEqualTo(LocalDate.now().plusDays(3).toString());
+    }
+    
+    @Test
+    public void shouldReturnOneRangeForCompactBooking() throws Exception {
+    	List<Booking> reservations = new ArrayList<>();
+		String uuid = UUID.randomUUID().toString();
+    	reservations.add(booking(uuid, LocalDate.now().plusDays(1), LocalDate.now().plusDays(3)));
+    	
+    	Mockito.when(bookingRepository.findByUuid(uuid))
+		   	   .thenReturn(reservations);
+    	
+        // when
+        MockHttpServletResponse response = 
+            mvc.perform(get("/booking/"+uuid).param("compact", "true"))
+            .andReturn()
+            .getResponse();
+        
+        // then
+        assertThat(response.getStatus()).isEqualTo(HttpStatus.OK.value());
+        
+        int length = JsonPath.parse(response.getContentAsString()).read("$.payload.length()");
+        assertThat(length).isEqualTo(1);
+        
+        String from = JsonPath.parse(response.getContentAsString()).read("$.payload[0].from");
+        assertThat(from).isEqualTo(LocalDate.now().plusDays(1).toString());
+    }
+    
+    @Test
+    public void shouldServeCachedWindowUntilBookingChanges() throws Exception {
+    	List<Booking> reservations = new ArrayList<>();
+    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(1), UUID.randomUUID().toString()));
+    	
+    	Mockito.when(bookingRepository.findOverlapping(Booking.DEFAULT_CAMPSITE, LocalDate.now(), LocalDate.now().plusMonths(1)))
+		   	   .thenReturn(reservations);
+    	
+        // when
+        MockHttpServletResponse first = mvc.perform(get("/booking/")).andReturn().getResponse();
+        String eTag = first.getHeader(HttpHeaders.ETAG);
+        MockHttpServletResponse second = mvc.perform(get("/booking/").header(HttpHeaders.IF_NONE_MATCH, eTag)).andReturn().getResponse();
+        
+        String deleted = UUID.randomUUID().toString();
+        Mockito.when(bookingRepository.findByUuid(deleted))
+        	   .thenReturn(Collections.singletonList(new Booking("chiri@gmail.com", "Agustin", "Chirichigno", LocalDate.now().plusDays(15), deleted)));
+        mvc.perform(delete("/booking/"+deleted));
+        reservations.add(new Booking("rochi@gmail.com", "Rocio", "Zalla", LocalDate.now().plusDays(19), UUID.randomUUID().toString()));
+        MockHttpServletResponse third = mvc.perform(get("/booking/").header(HttpHeaders.IF_NONE_MATCH, eTag)).andReturn().getResponse();
+        
+        // then
+        assertThat(eTag).isNotNull();
+        assertThat(second.getStatus()).isEqualTo(HttpStatus.NOT_MODIFIED.value());
+        assertThat(third.getStatus()).isEqualTo(HttpStatus.OK.value());
+        assertThat(third.getHeader(HttpHeaders.ETAG)).isNotEqualTo(eTag);
+        Mockito.verify(bookingRepository, Mockito.times(2)).findOverlapping(Booking.DEFAULT_CAMPSITE, LocalDate.now(), LocalDate.now().plusMonths(1));
+    }
+    
     @Test
     public void shouldDeleteBooking() throws Exception {
     	List<Booking> reservations = new ArrayList<>();
 		String uuid = UUID.randomUUID().toString();
-    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(1), uuid));
-    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(2), uuid));
-    	reservations.add(new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", LocalDate.now().plusDays(3), uuid));    	
+    	reservations.add(booking(uuid, LocalDate.now().plusDays(1), LocalDate.now().plusDays(3)));
     	
     	Mockito.when(bookingRepository.findByUuid(uuid))
 		   	   .thenReturn(reservations);
+    	availabilityIndex.load(reservations);
     	
         // when
         MockHttpServletResponse response = 
@@ -323,6 +1011,8 @@ public class BookingServicesTests {
         
         // then
         assertThat(response.getStatus()).isEqualTo(HttpStatus.NO_CONTENT.value());
+        assertThat(availabilityIndex.availability(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1), LocalDate.now().plusDays(3)))
+        	.allMatch(AvailabilityIndex.DayAvailability::isAvailable);
     }
     
     @Test
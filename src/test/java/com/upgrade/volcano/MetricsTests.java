@@ -0,0 +1,80 @@
+package com.upgrade.volcano;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.when;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.upgrade.volcano.metrics.TimedTransactionManager;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+@RunWith(MockitoJUnitRunner.class)
+public class MetricsTests {
+
+    @Mock
+    private EntityManagerFactory entityManagerFactory;
+
+    @Mock
+    private EntityManager entityManager;
+
+    @Mock
+    private EntityTransaction entityTransaction;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private TimedTransactionManager transactionManager;
+
+    @Before
+    public void setup() {
+        when(entityManagerFactory.createEntityManager()).thenReturn(entityManager);
+        when(entityManager.getTransaction()).thenReturn(entityTransaction);
+
+        meterRegistry = new SimpleMeterRegistry();
+        transactionManager = new TimedTransactionManager(meterRegistry);
+        transactionManager.setEntityManagerFactory(entityManagerFactory);
+    }
+
+    @Test
+    public void shouldTimeNewTransactionsByOutcome() {
+    	TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+    	// when
+    	transactionTemplate.execute(status -> null);
+    	assertThatThrownBy(() -> transactionTemplate.execute(status -> {
+    		throw new IllegalStateException();
+    	})).isInstanceOf(IllegalStateException.class);
+
+    	// then
+    	assertThat(meterRegistry.get("volcano.transactions").tag("outcome", "commit").timer().count()).isEqualTo(1);
+    	assertThat(meterRegistry.get("volcano.transactions").tag("outcome", "rollback").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotTimeJoinedTransactions() {
+    	TransactionTemplate transactionTemplate = new TransactionTemplate(transactionManager);
+
+    	// when
+    	transactionTemplate.execute(status -> transactionTemplate.execute(joined -> null));
+
+    	// then
+    	assertThat(meterRegistry.get("volcano.transactions").tag("outcome", "commit").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldKeepTypeOfJpaTransactionManager() {
+    	// then
+    	assertThat(transactionManager).isInstanceOf(JpaTransactionManager.class);
+    }
+}
@@ -0,0 +1,239 @@
+package com.upgrade.volcano;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDate;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnitRunner;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.transaction.reactive.TransactionalOperator;
+
+import com.upgrade.volcano.availability.AvailabilityIndex;
+import com.upgrade.volcano.availability.ReservationEngine;
+import com.upgrade.volcano.repository.Booking;
+import com.upgrade.volcano.repository.BookingVersion;
+import com.upgrade.volcano.repository.ReactiveBookingRepository;
+import com.upgrade.volcano.resources.AdmissionControl;
+import com.upgrade.volcano.resources.Campsites;
+import com.upgrade.volcano.resources.ConflictExceptionController;
+import com.upgrade.volcano.resources.InternalServerErrorExceptionController;
+import com.upgrade.volcano.resources.PreconditionFailedExceptionController;
+import com.upgrade.volcano.resources.ReactiveBookingResource;
+import com.upgrade.volcano.resources.TooManyRequestsExceptionController;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+@RunWith(MockitoJUnitRunner.class)
+public class ReactiveBookingServicesTests {
+
+    private WebTestClient client;
+
+    @Mock
+    private ReactiveBookingRepository bookingRepository;
+
+    @Mock
+    private TransactionalOperator transactions;
+
+    private AvailabilityIndex availabilityIndex;
+
+    @Before
+    public void setup() {
+        availabilityIndex = new AvailabilityIndex();
+        client = WebTestClient
+        		.bindToController(new ReactiveBookingResource(bookingRepository, availabilityIndex, new ReservationEngine(availabilityIndex),
+        				new BookingVersion(), new Campsites(Collections.emptyList()),
+        				new AdmissionControl(availabilityIndex, new SimpleMeterRegistry(), 2, 0.001, 8, 1000L), transactions, Schedulers.immediate(), 3))
+        		.controllerAdvice(new ConflictExceptionController(new SimpleMeterRegistry()), new InternalServerErrorExceptionController(new SimpleMeterRegistry()),
+        				new TooManyRequestsExceptionController(new SimpleMeterRegistry()), new PreconditionFailedExceptionController(new SimpleMeterRegistry()))
+        		.build();
+    }
+
+    private static String booking(LocalDate from, LocalDate to) throws Exception {
+    	JSONObject reservation = new JSONObject();
+    	reservation.put("email", "tomasjuarez@gmail.com");
+    	reservation.put("name", "Tomas");
+    	reservation.put("lastName", "Juarez");
+    	reservation.put("date", from.toString());
+    	reservation.put("dateTo", to.toString());
+    	return reservation.toString();
+    }
+
+    @Test
+    public void shouldCreateNewBookingAndBookItsDays() throws Exception {
+    	when(bookingRepository.requireFree(any(), any(), any(), any())).thenReturn(Mono.empty());
+    	when(bookingRepository.insert(any(Booking.class))).thenReturn(Mono.empty());
+    	when(transactions.transactional(any(Mono.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+    	// when
+    	client.post().uri("/booking").contentType(MediaType.APPLICATION_JSON)
+    		.bodyValue(booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(2)))
+    		.exchange()
+
+    	// then
+    		.expectStatus().isEqualTo(HttpStatus.CREATED)
+    		.expectBody().jsonPath("$.error").doesNotExist().jsonPath("$.payload.uuid").isNotEmpty();
+
+    	assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isTrue();
+    	assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(2))).isTrue();
+    }
+
+    @Test
+    public void shouldRejectBookingsTooFarAhead() throws Exception {
+    	// when
+    	client.post().uri("/booking").contentType(MediaType.APPLICATION_JSON)
+    		.bodyValue(booking(LocalDate.now().plusDays(40), LocalDate.now().plusDays(41)))
+    		.exchange()
+
+    	// then
+    		.expectStatus().isBadRequest()
+    		.expectBody().jsonPath("$.error").isEqualTo("the campsite can be reserved minimum 1 day(s) ahead of arrival and up to 1 month in advance.");
+    }
+
+    @Test
+    public void shouldAnswerConflictWithoutTouchingTheDatabase() throws Exception {
+    	availabilityIndex.book(Booking.DEFAULT_CAMPSITE, UUID.randomUUID().toString(), LocalDate.now().plusDays(2));
+
+    	// when
+    	client.post().uri("/booking").contentType(MediaType.APPLICATION_JSON)
+    		.bodyValue(booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(2)))
+    		.exchange()
+
+    	// then
+    		.expectStatus().isEqualTo(HttpStatus.CONFLICT)
+    		.expectBody().jsonPath("$.error").isEqualTo("the campsite is occupied for the days you have selected.");
+
+    	verify(bookingRepository, never()).insert(any(Booking.class));
+    	assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isFalse();
+    }
+
+    @Test
+    public void shouldGiveDaysBackWhenTheInsertFails() throws Exception {
+    	when(bookingRepository.requireFree(any(), any(), any(), any())).thenReturn(Mono.empty());
+    	when(bookingRepository.insert(any(Booking.class))).thenReturn(Mono.error(new IllegalStateException("connection lost")));
+    	when(transactions.transactional(any(Mono.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+    	// when
+    	client.post().uri("/booking").contentType(MediaType.APPLICATION_JSON)
+    		.bodyValue(booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(1)))
+    		.exchange()
+
+    	// then
+    		.expectStatus().isEqualTo(HttpStatus.INTERNAL_SERVER_ERROR);
+
+    	assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isFalse();
+    }
+
+    @Test
+    public void shouldAnswerConflictWhenTheDatabaseHasTheDays() throws Exception {
+    	when(bookingRepository.requireFree(any(), any(), any(), any())).thenReturn(Mono.error(new DataIntegrityViolationException("taken")));
+    	when(bookingRepository.insert(any(Booking.class))).thenReturn(Mono.empty());
+    	when(transactions.transactional(any(Mono.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+    	// when
+    	client.post().uri("/booking").contentType(MediaType.APPLICATION_JSON)
+    		.bodyValue(booking(LocalDate.now().plusDays(1), LocalDate.now().plusDays(1)))
+    		.exchange()
+
+    	// then
+    		.expectStatus().isEqualTo(HttpStatus.CONFLICT);
+
+    	assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isFalse();
+    }
+
+    @Test
+    public void shouldAnswerTooManyRequestsPastTheBurst() throws Exception {
+    	// when
+    	for (int i = 0; i < 2; i++)
+    		client.post().uri("/booking").contentType(MediaType.APPLICATION_JSON)
+    			.bodyValue(booking(LocalDate.now().plusDays(40), LocalDate.now().plusDays(41)))
+    			.exchange()
+    			.expectStatus().isBadRequest();
+
+    	// then
+    	client.post().uri("/booking").contentType(MediaType.APPLICATION_JSON)
+    		.bodyValue(booking(LocalDate.now().plusDays(40), LocalDate.now().plusDays(41)))
+    		.exchange()
+    		.expectStatus().isEqualTo(HttpStatus.TOO_MANY_REQUESTS)
+    		.expectHeader().exists("Retry-After");
+    }
+
+    @Test
+    public void shouldAnswerNotFoundForMalformedIds() {
+    	// when
+    	client.get().uri("/booking/not-a-uuid").exchange()
+
+    	// then
+    		.expectStatus().isNotFound();
+    }
+
+    private String stored(LocalDate from, LocalDate to) {
+    	String uuid = UUID.randomUUID().toString();
+    	Booking booking = new Booking("tomasjuarez@gmail.com", "Tomas", "Juarez", from, to);
+    	booking.setUuid(uuid);
+    	booking.setVersion(0L);
+    	when(bookingRepository.findByUuid(uuid)).thenReturn(Flux.just(booking));
+    	when(bookingRepository.findArchivedByUuid(uuid)).thenReturn(Flux.empty());
+    	when(transactions.transactional(any(Mono.class))).thenAnswer(invocation -> invocation.getArgument(0));
+    	availabilityIndex.book(Booking.DEFAULT_CAMPSITE, uuid, from);
+    	return uuid;
+    }
+
+    //same answer as the blocking implementation.
+    @Test
+    public void shouldAnswerConflictWhenUpdateOverlapsAnotherBooking() throws Exception {
+    	String uuid = stored(LocalDate.now().plusDays(1), LocalDate.now().plusDays(1));
+    	when(bookingRepository.claimVersion(uuid, 0L)).thenReturn(Mono.just(1));
+    	when(bookingRepository.requireFree(any(), any(), any(), any())).thenReturn(Mono.error(new DataIntegrityViolationException("taken")));
+    	when(bookingRepository.changeDates(any(), any(), any())).thenReturn(Mono.just(1));
+
+    	// when
+    	client.patch().uri("/booking/" + uuid).contentType(MediaType.APPLICATION_JSON)
+    		.bodyValue(booking(LocalDate.now().plusDays(3), LocalDate.now().plusDays(3)))
+    		.exchange()
+
+    	// then
+    		.expectStatus().isEqualTo(HttpStatus.CONFLICT);
+
+    	assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(3))).isFalse();
+    	assertThat(availabilityIndex.ownerOf(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isEqualTo(uuid);
+    }
+
+    //the booking is being changed right now: a conflict, or a failed precondition for a client that sent If-Match.
+    @Test
+    public void shouldAnswerLikeBlockingWhenBookingStaysLocked() throws Exception {
+    	String uuid = stored(LocalDate.now().plusDays(1), LocalDate.now().plusDays(1));
+    	when(bookingRepository.claimVersion(uuid, 0L)).thenReturn(Mono.error(new CannotAcquireLockException("lock timeout")));
+    	when(bookingRepository.deleteByUuid(uuid)).thenReturn(Mono.just(1));
+
+    	// when
+    	client.delete().uri("/booking/" + uuid).exchange()
+
+    	// then
+    		.expectStatus().isEqualTo(HttpStatus.CONFLICT);
+
+    	client.delete().uri("/booking/" + uuid).header("If-Match", "\"0\"").exchange()
+    		.expectStatus().isEqualTo(HttpStatus.PRECONDITION_FAILED);
+
+    	verify(bookingRepository, never()).changeDates(any(), any(), any());
+    	assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isTrue();
+    }
+}
@@ -0,0 +1,101 @@
+package com.upgrade.volcano;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.upgrade.volcano.availability.AvailabilityIndex;
+import com.upgrade.volcano.availability.ReservationEngine;
+import com.upgrade.volcano.availability.ReservationEngine.Reservation;
+import com.upgrade.volcano.repository.Booking;
+
+public class ReservationEngineTests {
+
+    private AvailabilityIndex availabilityIndex;
+
+    private ReservationEngine reservationEngine;
+
+    @Before
+    public void setup() {
+        availabilityIndex = new AvailabilityIndex();
+        reservationEngine = new ReservationEngine(availabilityIndex);
+    }
+
+    @Test
+    public void shouldClaimWholeRangeOrNothing() {
+    	String other = UUID.randomUUID().toString();
+    	availabilityIndex.book(Booking.DEFAULT_CAMPSITE, other, LocalDate.now().plusDays(3));
+
+    	// when
+    	Reservation reservation = reservationEngine.reserve(Booking.DEFAULT_CAMPSITE, UUID.randomUUID().toString(), LocalDate.now().plusDays(1), LocalDate.now().plusDays(3));
+
+    	// then
+    	assertThat(reservation).isNull();
+    	assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(1))).isFalse();
+    	assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(2))).isFalse();
+    	assertThat(availabilityIndex.ownerOf(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(3))).isEqualTo(other);
+    }
+
+    @Test
+    public void shouldKeepDaysAlreadyOwnedWhenCancelling() {
+    	String uuid = UUID.randomUUID().toString();
+    	availabilityIndex.book(Booking.DEFAULT_CAMPSITE, uuid, LocalDate.now().plusDays(2));
+
+    	// when
+    	reservationEngine.reserve(Booking.DEFAULT_CAMPSITE, uuid, LocalDate.now().plusDays(2), LocalDate.now().plusDays(3)).cancel();
+
+    	// then
+    	assertThat(availabilityIndex.ownerOf(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(2))).isEqualTo(uuid);
+    	assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, LocalDate.now().plusDays(3))).isFalse();
+    }
+
+    @Test
+    public void shouldLetOnlyOneOfManyOverlappingRequestsWin() throws Exception {
+    	int clients = 200;
+    	ExecutorService executor = Executors.newFixedThreadPool(16);
+    	CountDownLatch start = new CountDownLatch(1);
+    	List<Future<Reservation>> attempts = new ArrayList<>();
+    	List<LocalDate> starts = new ArrayList<>();
+
+    	for (int i = 0; i < clients; i++) {
+    		//the ranges start at +4, +5 or +6 days and all share +6.
+    		LocalDate from = LocalDate.now().plusDays(4 + (i % 3));
+    		Callable<Reservation> attempt = () -> {
+    			start.await();
+    			return reservationEngine.reserve(Booking.DEFAULT_CAMPSITE, UUID.randomUUID().toString(), from, from.plusDays(2));
+    		};
+    		attempts.add(executor.submit(attempt));
+    		starts.add(from);
+    	}
+
+    	// when
+    	start.countDown();
+    	int winners = 0;
+    	LocalDate won = null;
+    	for (int i = 0; i < clients; i++) {
+    		if (attempts.get(i).get() != null) {
+    			winners++;
+    			won = starts.get(i);
+    		}
+    	}
+    	executor.shutdown();
+
+    	// then
+    	assertThat(winners).isEqualTo(1);
+    	for (LocalDate day = LocalDate.now().plusDays(4); !day.isAfter(LocalDate.now().plusDays(8)); day = day.plusDays(1)) {
+    		boolean inWinner = !day.isBefore(won) && !day.isAfter(won.plusDays(2));
+    		assertThat(availabilityIndex.isBooked(Booking.DEFAULT_CAMPSITE, day)).isEqualTo(inWinner);
+    	}
+    }
+}
@@ -0,0 +1,106 @@
+package com.upgrade.volcano;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.SpringBootTest.WebEnvironment;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import com.upgrade.volcano.repository.Booking;
+import com.upgrade.volcano.repository.BookingRepository;
+
+/**
+ * Compares request execution on Tomcat's platform thread pool with one virtual thread per request, through a real
+ * HTTP port. Every request streams the booking window from the database, so it holds its thread while blocked on JDBC.
+ * It's excluded from the regular build, run it once per mode and compare the output:
+ *
+ * mvn test -Dtest=ThreadModeLoadTest -Dvolcano.virtual-threads.enabled=false -Dloadtest.clients=1000
+ * mvn test -Dtest=ThreadModeLoadTest -Dvolcano.virtual-threads.enabled=true -Dloadtest.clients=1000
+ *
+ * Virtual threads need a JDK that has them, and the comparison is only fair with the same
+ * spring.datasource.hikari.maximum-pool-size in both runs.
+ */
+@RunWith(SpringRunner.class)
+@SpringBootTest(webEnvironment = WebEnvironment.RANDOM_PORT, properties = "spring.devtools.restart.enabled=false")
+public class ThreadModeLoadTest {
+
+	private static final int CLIENTS = Integer.getInteger("loadtest.clients", 1000);
+	private static final int REQUESTS = Integer.getInteger("loadtest.requests", 20);
+
+	@Autowired
+	private TestRestTemplate restTemplate;
+
+	@Autowired
+	private BookingRepository bookingRepository;
+
+	@Value("${volcano.virtual-threads.enabled:false}")
+	private boolean virtualThreads;
+
+	@Before
+	public void setup() {
+		bookingRepository.deleteAll();
+
+		for (long day = 1; day <= 30; day++)
+			bookingRepository.save(new Booking("Tomas", "Juarez", "tomasjuarez@gmail.com", LocalDate.now().plusDays(day), UUID.randomUUID().toString()));
+	}
+
+	@Test
+	public void manyConcurrentClientsReadingTheWindow() throws Exception {
+		ConcurrentLinkedQueue<Long> latencies = new ConcurrentLinkedQueue<>();
+		LongAdder failed = new LongAdder();
+		ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+		CountDownLatch start = new CountDownLatch(1);
+
+		for (int client = 0; client < CLIENTS; client++)
+			clients.submit(() -> {
+				start.await();
+
+				for (int request = 0; request < REQUESTS; request++) {
+					long began = System.nanoTime();
+					ResponseEntity<String> response = restTemplate.getForEntity("/booking?stream=true", String.class);
+					latencies.add(System.nanoTime() - began);
+
+					if (!response.getStatusCode().is2xxSuccessful())
+						failed.increment();
+				}
+
+				return null;
+			});
+
+		long began = System.nanoTime();
+		start.countDown();
+		clients.shutdown();
+		clients.awaitTermination(30, TimeUnit.MINUTES);
+		double seconds = (System.nanoTime() - began) / 1e9;
+
+		long[] sorted = latencies.stream().mapToLong(Long::longValue).toArray();
+		Arrays.sort(sorted);
+		System.out.printf("%s threads, %d clients: %d req in %.2fs, %.1f req/s  p50 %.1fms  p99 %.1fms  p999 %.1fms  error %d%n",
+				virtualThreads ? "virtual" : "platform", CLIENTS, sorted.length, seconds, sorted.length / seconds,
+				percentile(sorted, 50), percentile(sorted, 99), percentile(sorted, 99.9), failed.sum());
+
+		assertThat(failed.sum()).isEqualTo(0);
+	}
+
+	private static double percentile(long[] sorted, double percentile) {
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return sorted[Math.max(0, index)] / 1e6;
+	}
+}
@@ -0,0 +1,39 @@
+package com.upgrade.volcano;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+import com.upgrade.volcano.availability.TimingWheel;
+
+public class TimingWheelTests {
+
+    @Test
+    public void shouldExpireItemsOnTheirTickAndNotBefore() {
+    	TimingWheel<String> wheel = new TimingWheel<>(8, 100L, 0L);
+    	wheel.schedule("soon", 250L);
+    	//several turns of the wheel away.
+    	wheel.schedule("later", 2050L);
+
+    	// when / then
+    	assertThat(wheel.advance(200L)).isEmpty();
+    	assertThat(wheel.advance(300L)).containsExactly("soon");
+    	assertThat(wheel.advance(2000L)).isEmpty();
+    	assertThat(wheel.advance(2100L)).containsExactly("later");
+    	assertThat(wheel.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void shouldExpireEverythingMissedWhileNotTicked() {
+    	TimingWheel<Integer> wheel = new TimingWheel<>(4, 10L, 0L);
+
+    	for (int i = 1; i <= 20; i++)
+    		wheel.schedule(i, i * 10L);
+
+    	// when
+    	int expired = wheel.advance(1000L).size();
+
+    	// then
+    	assertThat(expired).isEqualTo(20);
+    }
+}